@@ -0,0 +1,79 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.iki.photon.sanaruudukko.entity.Round;
+
+/**
+ * Checking a word and solving a whole board on every board size. Half of the
+ * checked words are on their board.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardSizeBenchmark {
+
+    private static final int CASES = 1024;
+
+    @Param({ "4", "5", "6" })
+    public int side;
+
+    private String[] boards;
+    private WordTrie dictionary;
+    private Round[] rounds;
+    private String[] words;
+    private int i;
+
+    @Setup
+    public void setup() {
+        boards = Fixtures.boards(side);
+        dictionary = Fixtures.dictionary();
+        List<String> all = Fixtures.words();
+        Random r = new Random(4);
+
+        rounds = new Round[CASES];
+        words = new String[CASES];
+        for (int c = 0; c < CASES; c++) {
+            Round ro = new Round();
+            ro.setBoard(boards[c % boards.length]);
+            rounds[c] = ro;
+
+            List<String> valid = BoardSolver.solve(ro.getBoard(), dictionary).getWords(dictionary);
+            if (c % 2 == 0 && !valid.isEmpty()) {
+                words[c] = valid.get(r.nextInt(valid.size()));
+            } else {
+                words[c] = all.get(r.nextInt(all.size()));
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean checkWord() {
+        int c = i++ & (CASES - 1);
+        return WordManager.checkWord(rounds[c], words[c]);
+    }
+
+    @Benchmark
+    public ValidWordSet solve() {
+        return BoardSolver.solve(boards[i++ & (Fixtures.BOARDS - 1)], dictionary);
+    }
+}
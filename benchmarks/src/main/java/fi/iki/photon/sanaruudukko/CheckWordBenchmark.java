@@ -0,0 +1,73 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.iki.photon.sanaruudukko.entity.Round;
+
+/**
+ * Checking a single submitted word against a board, as done by
+ * WordManager.submitWord. Half of the words are on their board.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CheckWordBenchmark {
+
+    private static final int CASES = 1024;
+
+    private Round[] rounds;
+    private String[] words;
+    private int i;
+
+    @Setup
+    public void setup() {
+        String[] boards = Fixtures.boards();
+        List<String> dictionary = Fixtures.words();
+        WordTrie trie = Fixtures.dictionary();
+        Random r = new Random(4);
+
+        rounds = new Round[CASES];
+        words = new String[CASES];
+        for (int c = 0; c < CASES; c++) {
+            Round ro = new Round();
+            ro.setBoard(boards[c % boards.length]);
+            rounds[c] = ro;
+
+            List<String> valid = BoardSolver.solve(ro.getBoard(), trie).getWords(trie);
+            if (c % 2 == 0 && !valid.isEmpty()) {
+                words[c] = valid.get(r.nextInt(valid.size()));
+            } else {
+                words[c] = dictionary.get(r.nextInt(dictionary.size()));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean checkWord() {
+        int c = i++ & (CASES - 1);
+        return WordManager.checkWord(rounds[c], words[c]);
+    }
+
+    @Benchmark
+    public boolean legacyCheckWord() {
+        int c = i++ & (CASES - 1);
+        return LegacyCheckWord.checkWord(rounds[c].getBoard(), words[c]);
+    }
+}
@@ -0,0 +1,120 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Shared, deterministic data for the benchmarks.
+ *
+ * The word list imitates a Finnish dictionary: about 90 000 words built from
+ * Finnish-like syllables over the letters used on the boards, including 'a' and
+ * 'o' for A and O umlauts. Boards are rolled with the real dice table of
+ * RoundManager.
+ */
+
+final class Fixtures {
+
+    static final int DICTIONARY_SIZE = 90000;
+    static final int BOARDS = 64;
+
+    private static final String VOWELS = "AAAAEEEIIIIUUOOaaoY";
+    private static final String CONSONANTS = "NNNTTTSSSKKKLLLMMRRVVJHHPPD";
+
+    private static List<String> words;
+    private static WordTrie dictionary;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns the generated word list, sorted and without duplicates.
+     */
+
+    static synchronized List<String> words() {
+        if (words == null) {
+            Random r = new Random(2013);
+            Set<String> set = new LinkedHashSet<>();
+            while (set.size() < DICTIONARY_SIZE) {
+                String w = word(r);
+                if (w.length() >= 2 && w.length() <= 16) {
+                    set.add(w);
+                }
+            }
+            List<String> sorted = new ArrayList<>(set);
+            Collections.sort(sorted);
+            words = sorted;
+        }
+        return words;
+    }
+
+    static synchronized WordTrie dictionary() {
+        if (dictionary == null) {
+            dictionary = WordTrie.build(words());
+        }
+        return dictionary;
+    }
+
+    private static String word(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int syllables = 1 + r.nextInt(4);
+        for (int i = 0; i < syllables; i++) {
+            if (i > 0 || r.nextInt(3) > 0) {
+                sb.append(CONSONANTS.charAt(r.nextInt(CONSONANTS.length())));
+            }
+            sb.append(VOWELS.charAt(r.nextInt(VOWELS.length())));
+            if (r.nextInt(4) == 0) {
+                sb.append(VOWELS.charAt(r.nextInt(VOWELS.length())));
+            }
+            if (r.nextInt(3) == 0) {
+                sb.append(CONSONANTS.charAt(r.nextInt(CONSONANTS.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns 4x4 boards rolled with the game's dice.
+     */
+
+    static String[] boards() {
+        return boards(Bitboard.DEFAULT_SIDE);
+    }
+
+    /**
+     * Returns boards of the given side rolled with the game's dice.
+     */
+
+    static String[] boards(int side) {
+        PrintStream out = System.out;
+        silence();
+        String[] boards = new String[BOARDS];
+        for (int i = 0; i < BOARDS; i++) {
+            boards[i] = RoundManager.randomizeBoard(RoundManager.dices, side);
+        }
+        System.setOut(out);
+        return boards;
+    }
+
+    /**
+     * The game code prints debugging output on the hot paths. Send it nowhere so
+     * that the benchmark output stays readable; the formatting cost is still measured.
+     */
+
+    static void silence() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+}
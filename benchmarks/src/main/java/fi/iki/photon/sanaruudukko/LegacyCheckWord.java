@@ -0,0 +1,76 @@
+package fi.iki.photon.sanaruudukko;
+
+/**
+ * The original scan-and-backtrack implementation of WordManager.checkWord, kept as
+ * a baseline for the benchmarks.
+ */
+
+final class LegacyCheckWord {
+
+    private LegacyCheckWord() {
+    }
+
+    static boolean checkWord(String boardString, String word) {
+        int tmpx = 0, tmpy = 0;
+        int matchLength = 0;
+
+        char[] board = boardString.toCharArray();
+        char[] wordArray = word.toCharArray();
+        
+        int[] x = new int[16];
+        int[] y = new int[16];
+        
+        int looping = 0;
+        while (looping == 0) {
+            boolean allow = false;
+            // Only allow locations that are close to the previous matched character and are not already in x,y table.
+            if (matchLength > 0) {
+                if (Math.abs(x[matchLength - 1] - tmpx) < 2 && Math.abs(y[matchLength - 1] - tmpy) < 2) {
+                    allow = true;
+                }
+                for (int i = 0; i < matchLength; i++) {
+                    if (x[i] == tmpx && y[i] == tmpy) {
+                        allow = false;
+                    }
+                }
+            } else { allow = true; }
+            
+            if (allow && wordArray[matchLength] == board[tmpy * 4 + tmpx]) {
+                matchLength++;
+                x[matchLength-1] = tmpx;
+                y[matchLength-1] = tmpy;
+                tmpx = tmpy = 0;
+                if (matchLength == wordArray.length) {
+                    looping = 1;
+                }
+            } else {
+                if (tmpx == 3 && tmpy == 3) {
+                    if (matchLength == 0) {
+                        looping = 2;
+                    } else {
+                        tmpx = x[matchLength-1];
+                        tmpy = y[matchLength-1];
+                        matchLength--;
+                    }
+                }
+                if (tmpx == 3 && tmpy == 3) {
+                    if (matchLength == 0) {
+                        looping = 2;
+                    } else {
+                        tmpx = x[matchLength-1];
+                        tmpy = y[matchLength-1];
+                        matchLength--;
+                    }
+                }
+                
+                tmpx++;
+                if (tmpx > 3) {
+                    tmpy++;
+                    tmpx = 0;
+                }
+            }
+        }
+
+        return looping == 1;
+    }
+}
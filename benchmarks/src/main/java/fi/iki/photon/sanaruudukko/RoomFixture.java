@@ -0,0 +1,195 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import fi.iki.photon.sanaruudukko.entity.Player;
+import fi.iki.photon.sanaruudukko.entity.PlayerScore;
+import fi.iki.photon.sanaruudukko.entity.Room;
+import fi.iki.photon.sanaruudukko.entity.Round;
+import fi.iki.photon.sanaruudukko.entity.Word;
+
+/**
+ * A room with players, previous rounds and submitted words, served to the
+ * managers through an in-memory EntityManager. The EntityManager answers the
+ * JPQL queries the managers make, so the benchmarks measure the managers' own
+ * work without a database. An unknown query fails loudly, which means the
+ * fixture has to be updated together with the queries.
+ */
+
+final class RoomFixture {
+
+    final Room room = new Room();
+    final List<Player> players = new ArrayList<>();
+    final List<Round> rounds = new ArrayList<>();
+    final Map<Round, List<Word>> words = new HashMap<>();
+    final List<PlayerScore> scores = new ArrayList<>();
+    final RoomSnapshots snapshots = new RoomSnapshots();
+
+    RoomFixture(int playerCount, int roundCount, int wordsPerPlayer, long currentRoundStart) {
+        Random r = new Random(playerCount * 31 + roundCount);
+        String[] boards = Fixtures.boards();
+        WordTrie dictionary = Fixtures.dictionary();
+
+        room.setId(1);
+        room.setName("bench");
+
+        for (int p = 0; p < playerCount; p++) {
+            Player player = new Player();
+            player.setName("player" + p);
+            player.setPasscode("x");
+            player.setRoom(room);
+            player.setLastSeen(new Date(System.currentTimeMillis() + 3600 * 1000L));
+            players.add(player);
+        }
+
+        for (int i = 0; i < roundCount; i++) {
+            Round ro = new Round();
+            ro.setId(i + 1);
+            ro.setRoom(room);
+            ro.setBoard(boards[i % boards.length]);
+            ro.setRoundStart(new Date(i == roundCount - 1 ? currentRoundStart : currentRoundStart - (roundCount - i) * 3600 * 1000L));
+            rounds.add(ro);
+
+            // Players find partly the same words, so there are duplicates.
+            List<String> valid = BoardSolver.solve(ro.getBoard(), dictionary).getWords(dictionary);
+            List<Word> roundWords = new ArrayList<>();
+            for (Player player : players) {
+                List<String> chosen = new ArrayList<>(valid);
+                Collections.shuffle(chosen, r);
+                for (String s : chosen.subList(0, Math.min(wordsPerPlayer, chosen.size()))) {
+                    Word w = new Word();
+                    w.setWord(s);
+                    w.setPlayer(player);
+                    w.setRound(ro);
+                    w.setLanguageCheck(true);
+                    w.setDisabled(r.nextInt(10) == 0);
+                    roundWords.add(w);
+                }
+            }
+            words.put(ro, roundWords);
+        }
+        room.setCurrentRound(current());
+
+        // The previous rounds, and the current one if it has ended, have been scored when
+        // they ended.
+        WordManager wm = wordManager();
+        for (Round ro : rounds) {
+            if (! RoundManager.roundContinues(ro)) {
+                wm.scoreRound(room, ro);
+            }
+        }
+    }
+
+    Round current() {
+        return rounds.get(rounds.size() - 1);
+    }
+
+    /**
+     * Returns a WordManager that uses the fixture, with its own RoundIndex and the
+     * fixture's room snapshots.
+     */
+
+    WordManager wordManager() {
+        RoundIndex index = new RoundIndex();
+        inject(index, "em", entityManager());
+        WordManager wm = new WordManager();
+        inject(wm, "em", entityManager());
+        inject(wm, "index", index);
+        inject(wm, "snapshots", snapshots);
+        return wm;
+    }
+
+    /**
+     * Sets the given field of a manager, the way the container injects it.
+     */
+
+    static void inject(Object target, String field, Object value) {
+        try {
+            Field f = target.getClass().getDeclaredField(field);
+            f.setAccessible(true);
+            f.set(target, value);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    EntityManager entityManager() {
+        return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { EntityManager.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createQuery")) {
+                    return query((String) args[0]);
+                }
+                if (method.getName().equals("getReference") && args[0] == Player.class) {
+                    for (Player player : players) {
+                        if (player.getName().equals(args[1])) return player;
+                    }
+                    return null;
+                }
+                if (method.getName().equals("persist") && args[0] instanceof PlayerScore) {
+                    scores.add((PlayerScore) args[0]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private TypedQuery<?> query(final String jpql) {
+        final Map<Integer, Object> parameters = new HashMap<>();
+        return (TypedQuery<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { TypedQuery.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "setParameter":
+                    parameters.put((Integer) args[0], args[1]);
+                    return proxy;
+                case "getResultList":
+                    return resultList(jpql, parameters);
+                case "getSingleResult":
+                    return singleResult(jpql, parameters);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private List<?> resultList(String jpql, Map<Integer, Object> p) {
+        if (jpql.startsWith("SELECT p FROM Player p WHERE p.room = ?1")) {
+            List<Player> result = new ArrayList<>();
+            for (Player player : players) {
+                if (player.getRoom() == p.get(1)) result.add(player);
+            }
+            return result;
+        }
+        if (jpql.equals("SELECT ps FROM PlayerScore ps WHERE ps.room = ?1")) {
+            List<PlayerScore> result = new ArrayList<>();
+            for (PlayerScore ps : scores) {
+                if (ps.getRoom() == p.get(1)) result.add(ps);
+            }
+            return result;
+        }
+        if (jpql.equals("SELECT w FROM Word w WHERE w.round = ?1")) {
+            return new ArrayList<>(words.get(p.get(1)));
+        }
+        throw new UnsupportedOperationException(jpql);
+    }
+
+    private Object singleResult(String jpql, Map<Integer, Object> p) {
+        throw new UnsupportedOperationException(jpql);
+    }
+}
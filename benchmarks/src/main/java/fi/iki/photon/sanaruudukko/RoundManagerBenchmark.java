@@ -0,0 +1,80 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.iki.photon.sanaruudukko.entity.Round;
+
+/**
+ * Rolling a new board and rendering the round element of the replies.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundManagerBenchmark {
+
+    private Round starting;
+    private Round running;
+    private Round ended;
+
+    @Setup
+    public void setup() {
+        String board = Fixtures.boards()[0];
+        long now = System.currentTimeMillis();
+
+        // A round lasts longer than the whole run, so the states don't change.
+        starting = round(board, now + 3600 * 1000L);
+        running = round(board, now);
+        ended = round(board, now - 3600 * 1000L);
+
+        Fixtures.silence();
+    }
+
+    private static Round round(String board, long start) {
+        Round ro = new Round();
+        ro.setBoard(board);
+        ro.setRoundStart(new Date(start));
+        return ro;
+    }
+
+    @Benchmark
+    public String randomizeBoard() {
+        return RoundManager.randomizeBoard(RoundManager.dices, Bitboard.DEFAULT_SIDE);
+    }
+
+    @Benchmark
+    public int displayRoundStarting() {
+        XmlWriter out = new XmlWriter();
+        RoundManager.displayRound(out, null, starting);
+        return out.length();
+    }
+
+    @Benchmark
+    public int displayRoundRunning() {
+        XmlWriter out = new XmlWriter();
+        RoundManager.displayRound(out, null, running);
+        return out.length();
+    }
+
+    @Benchmark
+    public int displayRoundEnded() {
+        XmlWriter out = new XmlWriter();
+        RoundManager.displayRound(out, null, ended);
+        return out.length();
+    }
+}
@@ -0,0 +1,82 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fi.iki.photon.sanaruudukko.entity.Round;
+
+/**
+ * Finding all the dictionary words on a board, as done by BoardPool for every
+ * new board. perWordScan is the original approach of checking every dictionary
+ * word separately. cachedSolver looks up boards that SolverCache has already seen
+ * in some rotation or reflection.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolverBenchmark {
+
+    private String[] boards;
+    private WordTrie dictionary;
+    private SolverCache cache;
+    private String[] mirrored;
+    private List<String> words;
+    private int i;
+
+    @Setup
+    public void setup() {
+        boards = Fixtures.boards();
+        dictionary = Fixtures.dictionary();
+        words = Fixtures.words();
+
+        cache = new SolverCache();
+        mirrored = new String[boards.length];
+        for (int b = 0; b < boards.length; b++) {
+            cache.solve(boards[b], dictionary);
+            mirrored[b] = new StringBuilder(boards[b]).reverse().toString();
+        }
+    }
+
+    @Benchmark
+    public ValidWordSet trieSolver() {
+        return BoardSolver.solve(boards[i++ & (Fixtures.BOARDS - 1)], dictionary);
+    }
+
+    @Benchmark
+    public ValidWordSet cachedSolver() {
+        return cache.solve(mirrored[i++ & (Fixtures.BOARDS - 1)], dictionary);
+    }
+
+    @Benchmark
+    public void perWordScan(Blackhole bh) {
+        Round ro = new Round();
+        ro.setBoard(boards[i++ & (Fixtures.BOARDS - 1)]);
+        for (String s : words) {
+            bh.consume(WordManager.checkWord(ro, s));
+        }
+    }
+
+    @Benchmark
+    public void legacyPerWordScan(Blackhole bh) {
+        String board = boards[i++ & (Fixtures.BOARDS - 1)];
+        for (String s : words) {
+            bh.consume(LegacyCheckWord.checkWord(board, s));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.iki.photon.sanaruudukko.entity.Player;
+
+/**
+ * Scoring words and rendering the players element of the replies with
+ * WordManager.displayWords, for a room of 8 players during a round and after it.
+ * The fan-out benchmarks change the room and then render the reply of every
+ * player, the way the wordwaiters do after a notification.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WordManagerBenchmark {
+
+    @Param({ "1", "10" })
+    public int rounds;
+
+    private RoomFixture running;
+    private RoomFixture ended;
+    private WordManager runningManager;
+    private WordManager endedManager;
+    private List<String> words;
+    private int i;
+
+    @Setup
+    public void setup() {
+        long now = System.currentTimeMillis();
+        running = new RoomFixture(8, rounds, 40, now);
+        ended = new RoomFixture(8, rounds, 40, now - 3600 * 1000L);
+        runningManager = running.wordManager();
+        endedManager = ended.wordManager();
+        words = Fixtures.words();
+
+        Fixtures.silence();
+    }
+
+    @Benchmark
+    public int score() {
+        return WordManager.score(words.get(i++ % words.size()));
+    }
+
+    @Benchmark
+    public int displayWordsRunning() {
+        XmlWriter out = new XmlWriter();
+        runningManager.displayWords(out, running.players.get(0), running.room, running.current());
+        return out.length();
+    }
+
+    @Benchmark
+    public int displayWordsEnded() {
+        XmlWriter out = new XmlWriter();
+        endedManager.displayWords(out, ended.players.get(0), ended.room, ended.current());
+        return out.length();
+    }
+
+    @Benchmark
+    public int displayWordsRunningJson() {
+        JsonWriter out = new JsonWriter();
+        runningManager.displayWords(out, running.players.get(0), running.room, running.current());
+        return out.length();
+    }
+
+    @Benchmark
+    public int displayWordsEndedJson() {
+        JsonWriter out = new JsonWriter();
+        endedManager.displayWords(out, ended.players.get(0), ended.room, ended.current());
+        return out.length();
+    }
+
+    @Benchmark
+    public int fanOutRunning() {
+        return fanOut(running, runningManager);
+    }
+
+    @Benchmark
+    public int fanOutEnded() {
+        return fanOut(ended, endedManager);
+    }
+
+    private static int fanOut(RoomFixture f, WordManager wm) {
+        f.snapshots.changed(f.room);
+        int length = 0;
+        for (Player p : f.players) {
+            XmlWriter out = new XmlWriter();
+            wm.displayWords(out, p, f.room, f.current());
+            length += out.length();
+        }
+        return length;
+    }
+}
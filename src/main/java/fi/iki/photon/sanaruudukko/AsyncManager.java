@@ -1,13 +1,17 @@
 package fi.iki.photon.sanaruudukko;
 
+import java.io.Serializable;
 import java.util.Date;
-import java.util.List;
 
 import javax.annotation.Resource;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.LocalBean;
 import javax.ejb.Stateless;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
 import javax.persistence.EntityManager;
@@ -20,10 +24,8 @@ import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 import javax.transaction.UserTransaction;
 
-import fi.iki.photon.sanaruudukko.entity.Player;
 import fi.iki.photon.sanaruudukko.entity.Room;
 import fi.iki.photon.sanaruudukko.entity.Round;
-import fi.iki.photon.sanaruudukko.entity.ValidWord;
 
 @Stateless
 @LocalBean
@@ -36,12 +38,21 @@ public class AsyncManager {
     @Resource
     private UserTransaction tx;
 
+    @Resource
+    private TimerService timerService;
+
     @EJB
     private WordManager wm;
 
     @EJB
     private MessageManager mm;
 
+    @EJB
+    private RoomSnapshots snapshots;
+
+    @EJB
+    private RoundIndex index;
+
     /**
      * Notifies the users in the given room that the round has started.
      * 
@@ -49,26 +60,20 @@ public class AsyncManager {
      */
     
     private void roundStarted(final int roomId) {
-        try {
-            tx.begin();
-
-            final Room roomItem = em.find(Room.class, Integer.valueOf(roomId));
-
-            final List<Player> players = em
-                    .createQuery("Select p From Player p where p.room = ?1",
-                            Player.class).setParameter(1, roomItem)
-                    .getResultList();
-
-            for (final Player p : players) {
-                mm.sendNewRoundNotify(p.getName());
-            }
+        mm.sendRoomNotify(roomId, -1, null);
+    }
 
-            tx.commit();
-        } catch (SecurityException | IllegalStateException | RollbackException
-                | HeuristicMixedException | HeuristicRollbackException
-                | SystemException | NotSupportedException e1) {
-            e1.printStackTrace();
-        }
+    /**
+     * Runs the given task in the asynchronous thread pool of the container. This is for
+     * work that is started by a notification, which must not be done in the notifying
+     * thread.
+     * 
+     * @param task
+     */
+    
+    @Asynchronous
+    public void execute(final Runnable task) {
+        task.run();
     }
 
     /**
@@ -120,38 +125,85 @@ public class AsyncManager {
 
     }
 
-    @Asynchronous
-    public void calculateValidWords(int roundId) {
+    /**
+     * Finishes the given round when it ends. The timer is not persistent: if the server is
+     * restarted, the round is scored when the next round starts instead.
+     * 
+     * @param roundId
+     * @param end the end time of the round in milliseconds
+     */
+    
+    public void roundEndWaiter(final int roundId, final long end) {
+        timerService.createSingleActionTimer(new Date(end), new TimerConfig(Integer.valueOf(roundId), false));
+    }
+
+    /**
+     * Called when a round should have ended. If the round got more time, waits for the new
+     * end. Otherwise scores the round, renders the final player list of the room, and
+     * notifies the players in the room once, so their wordwaiter queries get the results.
+     * 
+     * @param timer
+     */
+    
+    @Timeout
+    public void roundEnded(final Timer timer) {
+        final Serializable info = timer.getInfo();
+        if (! (info instanceof Integer)) return;
+        final int roundId = ((Integer) info).intValue();
+        
+        int roomId = -1;
+        Round scored = null;
         try {
             tx.begin();
 
-            Round ro = em.find(Round.class, Integer.valueOf(roundId));
-            if (ro == null) return;
-            
-            final List<String> allWords = em
-                    .createQuery(
-                            "Select wl.word From WordList wl WHERE wl.language = ?1",
-                            String.class).setParameter(1, "FI").getResultList();
-
-            for (final String s : allWords) {
-                if (s != null) {
-                    if (WordManager.checkWord(ro, s)) {
-                        final ValidWord vw = new ValidWord();
-                        vw.setWord(s);
-                        vw.setRound(ro);
-                        em.persist(vw);
-                        System.out.println("VALID " + s);
-                    }
+            final Round ro = em.find(Round.class, Integer.valueOf(roundId));
+            if (ro != null) {
+                if (RoundManager.roundContinues(ro)) {
+                    roundEndWaiter(roundId, RoundManager.roundEnd(ro));
+                } else if (wm.scoreRound(ro.getRoom(), ro)) {
+                    scored = ro;
+                    roomId = ro.getRoom().getId();
                 }
             }
-
             tx.commit();
-        } catch (SecurityException | IllegalStateException | RollbackException
-                | HeuristicMixedException | HeuristicRollbackException
-                | SystemException | NotSupportedException e1) {
+        } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | RuntimeException e1 ) {
+            try {
+                tx.rollback();
+            } catch (IllegalStateException | SecurityException
+                    | SystemException e) {
+                e.printStackTrace();
+            }
             e1.printStackTrace();
+            // The scoreboard was finished in memory only, so it is read again. The
+            // rollback usually drops it already, but not if the transaction never began.
+            if (scored != null) {
+                index.remove(scored);
+            }
+            return;
         }
+        if (roomId < 0) return;
+        System.out.println("Round ended!");
+        
+        // The scores have been committed, so the new version of the room shows them.
+        try {
+            tx.begin();
 
-    }
+            final Room roomItem = em.find(Room.class, Integer.valueOf(roomId));
+            final Round ro = em.find(Round.class, Integer.valueOf(roundId));
+            snapshots.changed(roomItem);
+            wm.prerender(roomItem, ro);
+            mm.sendRoomNotify(roomId, roundId, null);
 
+            tx.commit();
+        } catch (RollbackException | HeuristicMixedException | HeuristicRollbackException
+                | SystemException | NotSupportedException | RuntimeException e1) {
+            try {
+                tx.rollback();
+            } catch (IllegalStateException | SecurityException
+                    | SystemException e) {
+                e.printStackTrace();
+            }
+            e1.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,228 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * A board stored as bit masks for fast word checks.
+ *
+ * Boards are square, from 4x4 up to 6x6 cells, and the board string lists the
+ * cells row by row. Cell i of the board is bit i of a long, so every board size
+ * uses the same 64-bit masks. Every cell has a precomputed mask of its adjacent
+ * cells, and the board has an occupancy mask for every letter on it, so finding
+ * the next cells of a path is a single AND of three masks. The cells already on
+ * the path are tracked in a visited mask.
+ *
+ * Instances are immutable and cached by board, so checking a word does not
+ * allocate anything.
+ */
+
+public final class Bitboard {
+
+    public static final int MIN_SIDE = 4;
+    public static final int MAX_SIDE = 6;
+    public static final int DEFAULT_SIDE = 4;
+    public static final int MAX_CELLS = MAX_SIDE * MAX_SIDE;
+
+    private static final int CACHE_SIZE = 256;
+
+    /** Bit masks of the adjacent cells for each cell, by the side of the board. */
+    private static final long[][] NEIGHBOURS = new long[MAX_SIDE + 1][];
+
+    static {
+        for (int side = MIN_SIDE; side <= MAX_SIDE; side++) {
+            long[] n = new long[side * side];
+            for (int cell = 0; cell < n.length; cell++) {
+                int x = cell % side, y = cell / side;
+                long mask = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx, ny = y + dy;
+                        if ((dx != 0 || dy != 0) && nx >= 0 && nx < side && ny >= 0 && ny < side) {
+                            mask |= 1L << (ny * side + nx);
+                        }
+                    }
+                }
+                n[cell] = mask;
+            }
+            NEIGHBOURS[side] = n;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Bitboard> cache = new ConcurrentHashMap<>();
+
+    private final String board;
+    private final int side;
+    private final long[] neighbours;
+    private final char[] letters;
+    private final long[] occupancy;
+
+    private Bitboard(String board, int side) {
+        this.board = board;
+        this.side = side;
+        this.neighbours = NEIGHBOURS[side];
+
+        int cells = board.length();
+        char[] l = new char[cells];
+        long[] o = new long[cells];
+        int count = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            char c = board.charAt(cell);
+            int i = 0;
+            while (i < count && l[i] != c) {
+                i++;
+            }
+            if (i == count) {
+                l[count++] = c;
+            }
+            o[i] |= 1L << cell;
+        }
+
+        letters = new char[count];
+        occupancy = new long[count];
+        System.arraycopy(l, 0, letters, 0, count);
+        System.arraycopy(o, 0, occupancy, 0, count);
+    }
+
+    /**
+     * Returns the bitboard of the given board string.
+     *
+     * @param board
+     * @return Bitboard.
+     */
+
+    public static @NonNull Bitboard of(@NonNull String board) {
+        Bitboard b = cache.get(board);
+        if (b == null) {
+            int side = sideOf(board.length());
+            if (side == 0) {
+                throw new IllegalArgumentException("Invalid board " + board);
+            }
+            if (cache.size() >= CACHE_SIZE) {
+                cache.clear();
+            }
+            b = new Bitboard(board, side);
+            cache.put(board, b);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the side of a board with the given number of cells.
+     *
+     * @param cells
+     * @return Side, or 0 if there is no board of that size.
+     */
+
+    public static int sideOf(int cells) {
+        for (int side = MIN_SIDE; side <= MAX_SIDE; side++) {
+            if (side * side == cells) return side;
+        }
+        return 0;
+    }
+
+    /**
+     * Is the given side a supported board size.
+     *
+     * @param side
+     * @return true for 4, 5 and 6.
+     */
+
+    public static boolean isValidSide(int side) {
+        return side >= MIN_SIDE && side <= MAX_SIDE;
+    }
+
+    /**
+     * Returns the length of the longest word that can be submitted on a board of
+     * the given side. A word can use every cell once.
+     *
+     * @param side
+     * @return Maximum word length.
+     */
+
+    public static int maxWordLength(int side) {
+        return side * side;
+    }
+
+    /**
+     * Returns the mask of the cells adjacent to the given cell.
+     *
+     * @param cell
+     * @return Neighbour mask.
+     */
+
+    public long neighbours(int cell) {
+        return neighbours[cell];
+    }
+
+    /**
+     * Returns the letter in the given cell.
+     *
+     * @param cell
+     * @return Letter.
+     */
+
+    public char letter(int cell) {
+        return board.charAt(cell);
+    }
+
+    /**
+     * Returns the mask of the cells that contain the given letter.
+     *
+     * @param c
+     * @return Occupancy mask, 0 if the letter is not on the board.
+     */
+
+    public long occupancy(char c) {
+        for (int i = 0; i < letters.length; i++) {
+            if (letters[i] == c) return occupancy[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Can the given word be formed on the board by moving between adjacent cells
+     * without using any cell twice.
+     *
+     * @param word
+     * @return true if the word is on the board.
+     */
+
+    public boolean contains(@NonNull CharSequence word) {
+        int length = word.length();
+        if (length == 0 || length > maxWordLength(side)) return false;
+
+        long start = occupancy(word.charAt(0));
+        while (start != 0) {
+            long bit = start & -start;
+            start ^= bit;
+            if (extend(word, 1, Long.numberOfTrailingZeros(bit), bit)) return true;
+        }
+        return false;
+    }
+
+    private boolean extend(CharSequence word, int index, int cell, long visited) {
+        if (index == word.length()) return true;
+
+        long next = neighbours[cell] & occupancy(word.charAt(index)) & ~visited;
+        while (next != 0) {
+            long bit = next & -next;
+            next ^= bit;
+            if (extend(word, index + 1, Long.numberOfTrailingZeros(bit), visited | bit)) return true;
+        }
+        return false;
+    }
+
+    public @NonNull String getBoard() {
+        return board;
+    }
+
+    public int getSide() {
+        return side;
+    }
+
+    public int getCells() {
+        return side * side;
+    }
+}
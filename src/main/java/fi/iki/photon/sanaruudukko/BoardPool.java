@@ -0,0 +1,140 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Pools of random boards that have already been solved, one pool for each language
+ * and board size.
+ *
+ * Starting a round takes a ready board and its valid words from the pool, so the
+ * round start doesn't wait for the solver. The pool is refilled in the background
+ * with the container's asynchronous invocations. Only if the pool has run empty is
+ * a board rolled and solved on the spot. The pool of the default language and size
+ * is filled at startup, the others when a room first uses them.
+ *
+ * The size of each pool is set with the system property sanaruudukko.boardpool.size.
+ */
+
+@Singleton
+@Startup
+@DependsOn("DictionaryManager")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class BoardPool {
+
+    public static final String POOL_SIZE_PROPERTY = "sanaruudukko.boardpool.size";
+
+    private static final int DEFAULT_POOL_SIZE = 16;
+
+    @EJB
+    private DictionaryManager dm;
+
+    @EJB
+    private SolverCache sc;
+
+    @Resource
+    private SessionContext ctx;
+
+    private final ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private int poolSize;
+
+    /**
+     * The boards of one size, and whether they are being refilled.
+     */
+
+    private static final class Pool {
+        final BlockingQueue<SolvedBoard> boards;
+        final AtomicBoolean refilling = new AtomicBoolean();
+
+        Pool(int size) {
+            boards = new ArrayBlockingQueue<>(size);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        poolSize = Math.max(1, Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE).intValue());
+        startRefill(DictionaryManager.DEFAULT_LANGUAGE, Bitboard.DEFAULT_SIDE);
+    }
+
+    /**
+     * Takes a solved board of the given language and side from the pool, and starts
+     * refilling the pool.
+     *
+     * @param language
+     * @param side
+     * @return A new board with its valid words.
+     */
+
+    public @NonNull SolvedBoard take(String language, int side) {
+        Pool pool = pool(language, side);
+        SolvedBoard sb = pool.boards.poll();
+        if (sb == null) {
+            System.out.println("Board pool empty for " + language + " " + side);
+            sb = solveNewBoard(language, side);
+        }
+        startRefill(language, side);
+        return sb;
+    }
+
+    /**
+     * Fills the pool of the given language and side up to its size. Runs in a container
+     * thread so that the callers of take don't wait for it.
+     *
+     * @param language
+     * @param side
+     */
+
+    @Asynchronous
+    public void refill(String language, int side) {
+        Pool pool = pool(language, side);
+        try {
+            while (pool.boards.remainingCapacity() > 0) {
+                pool.boards.offer(solveNewBoard(language, side));
+            }
+        } finally {
+            pool.refilling.set(false);
+        }
+    }
+
+    private void startRefill(String language, int side) {
+        Pool pool = pool(language, side);
+        if (pool.boards.remainingCapacity() > 0 && pool.refilling.compareAndSet(false, true)) {
+            ctx.getBusinessObject(BoardPool.class).refill(language, side);
+        }
+    }
+
+    private @NonNull Pool pool(String language, int side) {
+        if (! Bitboard.isValidSide(side)) {
+            throw new IllegalArgumentException("Invalid board size " + side);
+        }
+        String key = language + side;
+        Pool pool = pools.get(key);
+        if (pool == null) {
+            pools.putIfAbsent(key, new Pool(poolSize));
+            pool = pools.get(key);
+        }
+        return pool;
+    }
+
+    private @NonNull SolvedBoard solveNewBoard(String language, int side) {
+        String board = RoundManager.randomizeBoard(dm.getDice(language), side);
+        return new SolvedBoard(board, sc.solve(board, dm.getDictionary(language)));
+    }
+}
@@ -0,0 +1,69 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.BitSet;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Finds all the dictionary words that can be formed on a board.
+ *
+ * The board is walked once, depth first from every cell, and a path is only
+ * extended while the letters on it are a prefix of some word in the trie. This
+ * replaces checking every dictionary word against the board separately. The
+ * trie also prunes the larger boards, where the number of paths grows
+ * exponentially but only a few of them spell the start of a word.
+ */
+
+public final class BoardSolver {
+
+    private final Bitboard board;
+    private final WordTrie dictionary;
+    private final BitSet found = new BitSet();
+
+    private BoardSolver(Bitboard board, WordTrie dictionary) {
+        this.board = board;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Returns all the words in the dictionary that exist on the given board.
+     *
+     * @param board
+     * @param dictionary
+     * @return Set of valid words.
+     */
+
+    public static @NonNull ValidWordSet solve(@NonNull String board, @NonNull WordTrie dictionary) {
+        BoardSolver s = new BoardSolver(Bitboard.of(board), dictionary);
+        for (int cell = 0; cell < s.board.getCells(); cell++) {
+            int node = dictionary.child(WordTrie.ROOT, board.charAt(cell));
+            if (node != WordTrie.NONE) {
+                s.search(cell, node, 1L << cell);
+            }
+        }
+
+        int[] words = new int[s.found.cardinality()];
+        for (int i = 0, w = s.found.nextSetBit(0); w >= 0; i++, w = s.found.nextSetBit(w + 1)) {
+            words[i] = w;
+        }
+        return new ValidWordSet(dictionary.getChecksum(), words);
+    }
+
+    private void search(int cell, int node, long visited) {
+        int word = dictionary.wordIndex(node);
+        if (word != WordTrie.NONE) {
+            found.set(word);
+        }
+
+        long next = board.neighbours(cell) & ~visited;
+        while (next != 0) {
+            int n = Long.numberOfTrailingZeros(next);
+            next &= next - 1;
+
+            int child = dictionary.child(node, board.letter(n));
+            if (child != WordTrie.NONE) {
+                search(n, child, visited | (1L << n));
+            }
+        }
+    }
+}
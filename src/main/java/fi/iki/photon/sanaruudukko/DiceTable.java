@@ -0,0 +1,129 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Reads and makes the dice tables of the languages. A table has a die for every
+ * cell of the largest board, and a board of side n uses the first n * n dice.
+ *
+ * A dice file has one die per line as six letters in the form used on the boards,
+ * for example "AISBUJ". Lines starting with # are comments. A language without a
+ * dice file gets a table made from the letter frequencies of its word list.
+ */
+
+public final class DiceTable {
+
+    public static final int FACES = 6;
+
+    private DiceTable() {
+    }
+
+    /**
+     * Reads a dice file.
+     *
+     * @param file
+     * @return The dice table, or null if the file doesn't have enough dice.
+     * @throws IOException
+     */
+
+    public static @Nullable char[][] read(@NonNull File file) throws IOException {
+        List<char[]> dice = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String die = DictionaryCompiler.normalize(line);
+                if (die.startsWith("#") || die.length() == 0) continue;
+                if (die.length() != FACES) {
+                    System.out.println("Invalid die in " + file + ": " + line);
+                    return null;
+                }
+                dice.add(die.toCharArray());
+            }
+        }
+        if (dice.size() < Bitboard.MAX_CELLS) {
+            System.out.println("Not enough dice in " + file + ": " + dice.size());
+            return null;
+        }
+        return dice.toArray(new char[dice.size()][]);
+    }
+
+    /**
+     * Makes a dice table where every letter has about as many faces as its share of
+     * the letters in the dictionary. The faces are shuffled before they are dealt to
+     * the dice, so the dice of the smaller boards get the same mix of letters as the
+     * whole table. The shuffle is seeded with the dictionary checksum, so a dictionary
+     * always gets the same dice.
+     *
+     * @param dictionary
+     * @return The dice table.
+     */
+
+    public static @NonNull char[][] derive(@NonNull WordTrie dictionary) {
+        int faces = Bitboard.MAX_CELLS * FACES;
+
+        int[] counts = new int[Character.MAX_VALUE + 1];
+        long total = 0;
+        for (int i = 0; i < dictionary.getWordCount(); i++) {
+            String w = dictionary.word(i);
+            for (int j = 0; j < w.length(); j++) {
+                counts[w.charAt(j)]++;
+            }
+            total += w.length();
+        }
+
+        // Letters by frequency, each with its number of faces rounded to the nearest.
+        List<Character> letters = new ArrayList<>();
+        for (int c = 0; c < counts.length; c++) {
+            if (counts[c] > 0) {
+                letters.add(Character.valueOf((char) c));
+            }
+        }
+        final int[] cnt = counts;
+        Collections.sort(letters, new Comparator<Character>() {
+            @Override
+            public int compare(Character a, Character b) {
+                return cnt[b.charValue()] - cnt[a.charValue()];
+            }
+        });
+
+        char[] deal = new char[faces];
+        int dealt = 0;
+        for (Character l : letters) {
+            int n = total > 0 ? (int) Math.round((double) counts[l.charValue()] * faces / total) : 0;
+            for (int k = 0; k < n && dealt < faces; k++) {
+                deal[dealt++] = l.charValue();
+            }
+        }
+        // Rounding can leave faces over, give them to the most common letters.
+        for (int k = 0; dealt < faces; k++) {
+            deal[dealt++] = letters.isEmpty() ? '?' : letters.get(k % letters.size()).charValue();
+        }
+
+        Random random = new Random(dictionary.getChecksum());
+        for (int i = faces - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            char tmp = deal[j];
+            deal[j] = deal[i];
+            deal[i] = tmp;
+        }
+
+        char[][] dice = new char[Bitboard.MAX_CELLS][FACES];
+        for (int f = 0; f < faces; f++) {
+            dice[f % Bitboard.MAX_CELLS][f / Bitboard.MAX_CELLS] = deal[f];
+        }
+        return dice;
+    }
+}
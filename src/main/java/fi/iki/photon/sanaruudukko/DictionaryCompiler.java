@@ -0,0 +1,73 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Compiles word list text files into a dictionary file that DictionaryManager
+ * can memory map.
+ *
+ * Usage: java fi.iki.photon.sanaruudukko.DictionaryCompiler output.dict words.txt ...
+ *
+ * The text files are UTF-8 with one word per line. Words are converted to the
+ * form used on the boards: upper case, with A and O umlauts as 'a' and 'o'. Words longer
+ * than a word can be in the database are skipped.
+ */
+
+public final class DictionaryCompiler {
+
+    private static final int MAX_WORD_LENGTH = Bitboard.MAX_CELLS;
+
+    private DictionaryCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryCompiler <output file> <word file> [<word file> ...]");
+            System.exit(1);
+        }
+
+        List<String> words = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            readWords(new File(args[i]), words);
+        }
+
+        WordTrie trie = WordTrie.build(words);
+        trie.write(new File(args[0]));
+
+        System.out.println("Wrote " + trie.getWordCount() + " words, " + trie.getNodeCount() + " nodes to " + args[0]);
+    }
+
+    private static void readWords(@NonNull File file, @NonNull List<String> words) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String word = normalize(line);
+                if (word.length() > 0 && word.length() <= MAX_WORD_LENGTH) {
+                    words.add(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a word to the form used on the boards.
+     *
+     * @param word
+     * @return Normalized word.
+     */
+
+    static @NonNull String normalize(@NonNull String word) {
+        String w = word.trim().toUpperCase(Locale.ROOT).replace('\u00c4', 'a').replace('\u00d6', 'o');
+        return w != null ? w : "";
+    }
+}
@@ -0,0 +1,325 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Holds the word lists and dice of the languages in memory.
+ *
+ * A language is loaded when a room first needs it, and it gets its own read-only
+ * WordTrie and dice table. Word submissions and board solving then never need to
+ * read the dictionary from the database. The tries are immutable, so they are
+ * shared between threads without locking. Languages that haven't been used for
+ * a while are dropped again (system property sanaruudukko.dictionary.idle, in
+ * minutes), so unused languages don't take memory.
+ *
+ * If the system property sanaruudukko.dictionary.dir names a directory, a language
+ * is read from the compiled file <language>.dict in it (see DictionaryCompiler),
+ * where the language is a two letter code such as FI.
+ * The file is memory mapped, so it stays off the heap and loads instantly.
+ * Languages without a file are read from WordList, and their compiled file is
+ * written to the directory for the next time. The dice of a language are read from
+ * <language>.dice in the same directory (see DiceTable). Finnish uses the original
+ * dice of the game, and other languages without a dice file get dice made from
+ * their word list.
+ *
+ * A language is loaded by the first request that needs it. The other requests for
+ * the same language wait for that load, and requests for the other languages go on
+ * without waiting.
+ */
+
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DictionaryManager {
+
+    public static final String DEFAULT_LANGUAGE = "FI";
+
+    public static final String DICTIONARY_DIR_PROPERTY = "sanaruudukko.dictionary.dir";
+
+    public static final String IDLE_MINUTES_PROPERTY = "sanaruudukko.dictionary.idle";
+
+    private static final String DICTIONARY_SUFFIX = ".dict";
+
+    private static final String DICE_SUFFIX = ".dice";
+
+    private static final int DEFAULT_IDLE_MINUTES = 60;
+
+    private static final WordTrie EMPTY = WordTrie.build(Collections.<String>emptyList());
+
+    @PersistenceContext
+    private EntityManager em;
+
+    /**
+     * A loaded language.
+     */
+
+    private static final class Language {
+        final WordTrie dictionary;
+        final char[][] dice;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Language(WordTrie dictionary, char[][] dice) {
+            this.dictionary = dictionary;
+            this.dice = dice;
+        }
+    }
+
+    private volatile Set<String> languages = Collections.emptySet();
+
+    private final ConcurrentHashMap<String, Language> loaded = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, FutureTask<Language>> loading = new ConcurrentHashMap<>();
+
+    private File dir;
+
+    /**
+     * Finds the languages that have a dictionary file or words in WordList. The
+     * languages themselves are loaded when they are first used.
+     */
+
+    @PostConstruct
+    public void findLanguages() {
+        String dirName = System.getProperty(DICTIONARY_DIR_PROPERTY);
+        dir = dirName != null ? new File(dirName) : null;
+
+        Set<String> found = new TreeSet<>();
+
+        if (dir != null) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    String name = f.getName();
+                    // Language codes have two letters, like in WordList.
+                    if (name.endsWith(DICTIONARY_SUFFIX) && name.length() == DICTIONARY_SUFFIX.length() + 2) {
+                        found.add(name.substring(0, 2));
+                    }
+                }
+            }
+        }
+
+        for (String language : em.createQuery("SELECT DISTINCT wl.language FROM WordList wl", String.class).getResultList()) {
+            if (language != null) {
+                found.add(language);
+            }
+        }
+        found.add(DEFAULT_LANGUAGE);
+
+        System.out.println("Languages: " + found);
+        languages = Collections.unmodifiableSet(found);
+    }
+
+    /**
+     * Drops the languages that haven't been used for the idle time.
+     */
+
+    @Schedule(minute = "*/5", hour = "*", persistent = false)
+    public void evictIdle() {
+        long idle = Integer.getInteger(IDLE_MINUTES_PROPERTY, DEFAULT_IDLE_MINUTES).intValue() * 60 * 1000L;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Language> e : loaded.entrySet()) {
+            if (now - e.getValue().lastUsed > idle && loaded.remove(e.getKey(), e.getValue())) {
+                System.out.println("Dropped dictionary " + e.getKey());
+            }
+        }
+    }
+
+    private @NonNull Language language(String language) {
+        Language l = loaded.get(language);
+        if (l == null) {
+            l = loadOnce(language);
+        }
+        l.lastUsed = System.currentTimeMillis();
+        return l;
+    }
+
+    /**
+     * Loads the given language in this thread, or waits for the thread that is
+     * already loading it.
+     */
+
+    private @NonNull Language loadOnce(final String language) {
+        FutureTask<Language> task = new FutureTask<>(new Callable<Language>() {
+            @Override
+            public Language call() {
+                // Another thread may have finished loading since it was looked up.
+                Language l = loaded.get(language);
+                return l != null ? l : load(language);
+            }
+        });
+        FutureTask<Language> running = loading.putIfAbsent(language, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+                Language l = task.get();
+                if (l != null) loaded.put(language, l);
+            } catch (InterruptedException | ExecutionException e) {
+                // Thrown again below.
+            } finally {
+                loading.remove(language, task);
+            }
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    Language l = running.get();
+                    if (l == null) throw new IllegalStateException("No language " + language);
+                    return l;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loads the dictionary and dice of the given language, from the dictionary
+     * directory where possible and from the database otherwise.
+     */
+
+    private @NonNull Language load(String language) {
+        if (language == null || ! languages.contains(language)) {
+            return new Language(EMPTY, RoundManager.dices);
+        }
+
+        WordTrie trie = null;
+        File dictFile = dir != null ? new File(dir, language + DICTIONARY_SUFFIX) : null;
+        if (dictFile != null && dictFile.isFile()) {
+            try {
+                trie = WordTrie.map(dictFile);
+                System.out.println("Mapped dictionary " + language + ": " + trie.getWordCount() + " words");
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (trie == null) {
+            List<String> words = em.createQuery("SELECT wl.word FROM WordList wl WHERE wl.language = ?1", String.class).setParameter(1, language).getResultList();
+            trie = WordTrie.build(words);
+
+            System.out.println("Loaded dictionary " + language + ": " + trie.getWordCount() + " words, " + trie.getNodeCount() + " nodes");
+
+            if (dictFile != null && dir.isDirectory()) {
+                try {
+                    trie.write(dictFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        char[][] dice = null;
+        File diceFile = dir != null ? new File(dir, language + DICE_SUFFIX) : null;
+        if (diceFile != null && diceFile.isFile()) {
+            try {
+                dice = DiceTable.read(diceFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (dice == null) {
+            dice = DEFAULT_LANGUAGE.equals(language) ? RoundManager.dices : DiceTable.derive(trie);
+        }
+
+        return new Language(trie, dice);
+    }
+
+    /**
+     * Returns the languages that can be chosen for a room.
+     *
+     * @return Language codes in alphabetical order.
+     */
+
+    public @NonNull Set<String> getLanguages() {
+        Set<String> l = languages;
+        return l != null ? l : Collections.<String>emptySet();
+    }
+
+    /**
+     * Is the given language available.
+     *
+     * @param language
+     * @return true if the language can be chosen for a room.
+     */
+
+    public boolean hasLanguage(String language) {
+        return languages.contains(language);
+    }
+
+    /**
+     * Returns the dictionary of the given language, loading it if needed.
+     *
+     * @param language
+     * @return The dictionary, empty if the language has no words.
+     */
+
+    public @NonNull WordTrie getDictionary(String language) {
+        WordTrie trie = language(language).dictionary;
+        return trie != null ? trie : EMPTY;
+    }
+
+    /**
+     * Returns the dice of the given language, loading the language if needed.
+     *
+     * @param language
+     * @return The dice table.
+     */
+
+    public @NonNull char[][] getDice(String language) {
+        char[][] dice = language(language).dice;
+        return dice != null ? dice : RoundManager.dices;
+    }
+
+    /**
+     * Is the given word in the word list of the given language.
+     *
+     * @param language
+     * @param word
+     * @return true if the word is in the word list.
+     */
+
+    public boolean isWord(String language, @NonNull String word) {
+        return getDictionary(language).contains(word);
+    }
+
+    /**
+     * Does any word in the word list of the given language start with the given prefix.
+     *
+     * @param language
+     * @param prefix
+     * @return true if some word starts with the prefix.
+     */
+
+    public boolean isPrefix(String language, @NonNull String prefix) {
+        return getDictionary(language).hasPrefix(prefix);
+    }
+}
@@ -0,0 +1,58 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.IOException;
+
+import javax.ejb.EJB;
+import javax.servlet.AsyncContext;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends the changes of the game to a player as Server-Sent Events, for browsers
+ * that can't use GameSocket, for example behind a proxy that blocks WebSockets.
+ *
+ * The player and the passcode are checked when the stream is opened, and the
+ * request is then suspended and handed to EventStreams. The stream starts from the
+ * version in the Last-Event-ID header when the browser reconnects, or from the
+ * version parameter, or from nothing. The replies are XML, or JSON if the parameter
+ * format is json.
+ */
+
+@WebServlet(urlPatterns = "/rest/sr/events", asyncSupported = true)
+public class EventStreamServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @EJB
+    private Sanaruudukko sr;
+
+    @EJB
+    private EventStreams streams;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String player = req.getParameter("player");
+        if (player == null || ! sr.login(player, req.getParameter("passcode"))) {
+            // The browser doesn't reconnect after an error status.
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String version = req.getHeader("Last-Event-ID");
+        if (version == null) {
+            version = req.getParameter("version");
+        }
+        if (version == null) {
+            version = "";
+        }
+        String accept = "json".equals(req.getParameter("format")) ? "application/json" : null;
+
+        resp.setContentType("text/event-stream;charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext ac = req.startAsync();
+        streams.open(ac, player, accept, version);
+    }
+}
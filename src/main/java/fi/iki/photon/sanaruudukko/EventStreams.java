@@ -0,0 +1,252 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The open Server-Sent Events streams of EventStreamServlet.
+ *
+ * A stream sends the same changes as wordwaiter as events, and its event ids are
+ * the wordwaiter versions. After the changes have been written, the stream waits
+ * for a notification in NotificationHub, without a thread, and then writes the
+ * changes since the last event. The event is named by the largest change in it:
+ * round, words (the player list) or chat. The parts that are the same for all the
+ * players in the room come from RoomSnapshots, so only the viewer's own words are
+ * rendered for each stream.
+ *
+ * When the browser reconnects, it sends the id of the last event it got as
+ * Last-Event-ID, so the new stream starts with the changes the browser missed.
+ * A stream is closed after STREAM_TIME, and the browser reconnects after RETRY.
+ * A heartbeat comment is written every 20 seconds, so proxies don't close
+ * idle streams.
+ */
+
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class EventStreams {
+
+    private static final long STREAM_TIME = 300000;
+
+    private static final int RETRY = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @EJB
+    private Sanaruudukko sr;
+
+    @EJB
+    private NotificationHub hub;
+
+    @EJB
+    private AsyncManager am;
+
+    private final Set<Stream> streams = Collections.newSetFromMap(new ConcurrentHashMap<Stream, Boolean>());
+
+    /**
+     * One open stream. The stream has at most one waiter in NotificationHub, itself,
+     * so its changes are written by one thread at a time. The heartbeat is written by
+     * the timer, so the writes are synchronized.
+     */
+
+    private final class Stream implements Runnable, AsyncListener {
+        private final AsyncContext ac;
+        private final String player;
+        private final String accept;
+        private volatile String version;
+        private volatile boolean closed;
+
+        Stream(@NonNull AsyncContext ac, @NonNull String player, @Nullable String accept, @NonNull String version) {
+            this.ac = ac;
+            this.player = player;
+            this.accept = accept;
+            this.version = version;
+        }
+
+        /**
+         * Called by NotificationHub in the notifying thread, so the changes are written in
+         * another thread.
+         */
+
+        @Override
+        public void run() {
+            if (closed) return;
+            am.execute(new Runnable() {
+                @Override
+                public void run() {
+                    push();
+                }
+            });
+        }
+
+        /**
+         * Writes the changes since the last event, if there are any, and waits for the
+         * next notification.
+         */
+
+        void push() {
+            String p = player;
+            String v = version;
+            if (closed || p == null || v == null) return;
+
+            // Read before checking for changes, so that a notification sent after the
+            // check isn't missed.
+            long notified = hub.getCount(p);
+
+            Status s = new Status();
+            ReplyWriter out = sr.wordwaiterChanges(p, v, accept, s);
+            if (out != null) {
+                if (! write(event(s, out))) return;
+                if (s.version == null) {
+                    close();
+                    return;
+                }
+                version = s.version;
+            }
+            if (! hub.register(p, notified, this)) {
+                run();
+            }
+        }
+
+        /**
+         * Writes to the stream and flushes it. The stream is closed if the client has gone.
+         *
+         * @param text
+         * @return true if the text was written.
+         */
+
+        synchronized boolean write(@NonNull String text) {
+            if (closed) return false;
+            try {
+                ServletOutputStream output = ac.getResponse().getOutputStream();
+                output.write(text.getBytes(UTF8));
+                output.flush();
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                close();
+                return false;
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            forget();
+            try {
+                ac.complete();
+            } catch (IllegalStateException e) {
+                // Completed already.
+            }
+        }
+
+        private void forget() {
+            closed = true;
+            streams.remove(this);
+            String p = player;
+            if (p != null) {
+                hub.cancel(p, this);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            forget();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            forget();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // Not restarted.
+        }
+    }
+
+    /**
+     * Returns the changes as an event. Every line of the reply is a data line of the
+     * event.
+     *
+     * @param s
+     * @param out
+     * @return Event.
+     */
+
+    static @NonNull String event(@NonNull Status s, @NonNull ReplyWriter out) {
+        StringBuilder b = new StringBuilder(out.length() + 64);
+        b.append("event: ");
+        if (s.version == null) {
+            b.append("status");
+        } else if (s.newRound) {
+            b.append("round");
+        } else if (s.newWords) {
+            b.append("words");
+        } else {
+            b.append("chat");
+        }
+        b.append('\n');
+        if (s.version != null) {
+            b.append("id: ").append(s.version).append('\n');
+        }
+        for (String line : out.toString().split("\r\n|\r|\n", -1)) {
+            b.append("data: ").append(line).append('\n');
+        }
+        b.append('\n');
+        String e = b.toString();
+        return e != null ? e : "";
+    }
+
+    /**
+     * Starts a stream on a request that has been suspended, and writes the changes
+     * since the given version.
+     *
+     * @param ac
+     * @param player a player who has logged in
+     * @param accept
+     * @param version the version of the data the client has, empty if it has nothing
+     */
+
+    public void open(@NonNull AsyncContext ac, @NonNull String player, @Nullable String accept, @NonNull String version) {
+        ac.setTimeout(STREAM_TIME);
+        Stream stream = new Stream(ac, player, accept, version);
+        ac.addListener(stream);
+        streams.add(stream);
+        if (stream.write("retry: " + RETRY + "\n\n")) {
+            stream.run();
+        }
+    }
+
+    /**
+     * Writes a comment line to every stream.
+     */
+
+    @Schedule(second = "*/20", minute = "*", hour = "*", persistent = false)
+    public void heartbeat() {
+        for (Stream stream : streams) {
+            stream.write(": heartbeat\n\n");
+        }
+    }
+}
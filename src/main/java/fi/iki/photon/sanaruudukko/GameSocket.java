@@ -0,0 +1,159 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ejb.EJB;
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Pushes the round, player list and chat changes to a player through a WebSocket.
+ *
+ * The player and the passcode are given as parameters of the URL, and they are
+ * checked once when the socket is opened. After that the client sends the version
+ * of the data it has, as it would send it to wordwaiter, and the socket sends the
+ * changes since that version as soon as there are any: at once if something has
+ * already changed, or when NotificationHub wakes up the player. The client sends
+ * its new version again when it has handled the changes. There is no new request
+ * or passcode check for an update, and no waiting thread between the updates.
+ *
+ * Only the latest version sent by the client is waited for: a new version cancels
+ * the waiter of the previous one, and a reply that is already on its way for an
+ * older version is dropped. The replies are written one at a time, since a session
+ * can't send a message before the previous one has been sent.
+ *
+ * The replies are the wordwaiter replies, in XML or in JSON if the parameter format
+ * is json. The wordwaiter query stays for the browsers and servers without
+ * WebSockets. This needs a Java EE 7 server (JSR-356), and it isn't compiled into
+ * the benchmarks.
+ */
+
+@ServerEndpoint("/socket")
+public class GameSocket {
+
+    @EJB
+    private Sanaruudukko sr;
+
+    @EJB
+    private NotificationHub hub;
+
+    @EJB
+    private AsyncManager am;
+
+    private Session session;
+
+    private String player;
+
+    private String accept;
+
+    private volatile Runnable waiter;
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final Object sendLock = new Object();
+
+    private volatile boolean closed;
+
+    private static @Nullable String parameter(@NonNull Session session, @NonNull String name) {
+        List<String> values = session.getRequestParameterMap().get(name);
+        return values != null && ! values.isEmpty() ? values.get(0) : null;
+    }
+
+    @OnOpen
+    public void open(Session s) throws IOException {
+        String p = parameter(s, "player");
+        if (! sr.login(p, parameter(s, "passcode"))) {
+            s.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "1"));
+            return;
+        }
+        session = s;
+        player = p;
+        accept = "json".equals(parameter(s, "format")) ? "application/json" : null;
+    }
+
+    /**
+     * Sends the changes since the given version, now or when the player is notified.
+     *
+     * @param version the version of the data the client has, empty if it has nothing
+     */
+
+    @OnMessage
+    public void message(String version) {
+        final String p = player;
+        if (p == null || version == null) return;
+        final String seen = version;
+        final int g = generation.incrementAndGet();
+
+        Runnable previous = waiter;
+        if (previous != null) {
+            hub.cancel(p, previous);
+        }
+
+        // Read before checking for changes, so that a notification sent after the
+        // check isn't missed.
+        long notified = hub.getCount(p);
+
+        ReplyWriter out = sr.wordwaiterChanges(p, seen, accept, new Status());
+        if (out != null) {
+            send(out);
+            return;
+        }
+
+        Runnable w = new Runnable() {
+            @Override
+            public void run() {
+                if (closed || generation.get() != g) return;
+                am.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (! closed && generation.get() == g) {
+                            send(sr.wordwaiterReply(p, seen, accept, null));
+                        }
+                    }
+                });
+            }
+        };
+        waiter = w;
+        if (! hub.register(p, notified, w)) {
+            w.run();
+        }
+    }
+
+    private void send(@NonNull ReplyWriter out) {
+        Session s = session;
+        if (s == null) return;
+        synchronized (sendLock) {
+            if (! s.isOpen()) return;
+            try {
+                s.getBasicRemote().sendText(out.toString());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @OnClose
+    public void close() {
+        closed = true;
+        String p = player;
+        Runnable w = waiter;
+        if (p != null && w != null) {
+            hub.cancel(p, w);
+        }
+    }
+
+    @OnError
+    public void error(Throwable t) {
+        t.printStackTrace();
+    }
+}
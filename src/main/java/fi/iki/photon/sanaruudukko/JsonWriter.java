@@ -0,0 +1,185 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Writes the JSON replies of the game with the streaming generator of Jackson.
+ *
+ * An element is written as a field of the enclosing object, or as a value if it
+ * is in a list: the data element of a reply is the outermost object, a list of
+ * players is an array of objects and a list of words is an array of strings. The
+ * generator writes UTF-8 straight into a byte buffer, which is copied to the client
+ * as it is.
+ */
+
+public final class JsonWriter extends ReplyWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+
+    private final JsonGenerator gen;
+
+    public JsonWriter() {
+        try {
+            gen = factory.createJsonGenerator(buf, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public @NonNull ReplyWriter fragment() {
+        return new JsonWriter();
+    }
+
+    @Override
+    public @NonNull String getFormat() {
+        return "json";
+    }
+
+    /**
+     * Writes the name of a field, unless the value goes to a list or is the
+     * outermost value.
+     *
+     * @param name
+     * @throws IOException
+     */
+
+    private void name(@NonNull String name) throws IOException {
+        if (gen.getOutputContext().inObject()) {
+            gen.writeFieldName(name);
+        }
+    }
+
+    @Override
+    public void start(@NonNull String name) {
+        try {
+            name(name);
+            gen.writeStartObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void end(@NonNull String name) {
+        try {
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void element(@NonNull String name, @Nullable CharSequence text) {
+        try {
+            name(name);
+            if (text != null) {
+                gen.writeString(text.toString());
+            } else {
+                gen.writeNull();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void element(@NonNull String name, long value) {
+        try {
+            name(name);
+            gen.writeNumber(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void flag(@NonNull String name, boolean value) {
+        try {
+            name(name);
+            gen.writeBoolean(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void startList(@NonNull String name) {
+        try {
+            name(name);
+            gen.writeStartArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void endList(@NonNull String name) {
+        try {
+            gen.writeEndArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void raw(@NonNull String fragment) {
+        try {
+            gen.writeRawValue(fragment);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return Length.
+     */
+
+    @Override
+    public int length() {
+        flush();
+        return buf.size();
+    }
+
+    private void flush() {
+        try {
+            gen.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected @NonNull String getMediaType() {
+        return MediaType.APPLICATION_JSON + ";charset=utf-8";
+    }
+
+    @Override
+    protected void writeTo(@NonNull OutputStream output) throws IOException {
+        flush();
+        buf.writeTo(output);
+    }
+
+    @Override
+    public String toString() {
+        flush();
+        return new String(buf.toByteArray(), UTF8);
+    }
+}
@@ -1,160 +1,245 @@
 package fi.iki.photon.sanaruudukko;
 
-import java.util.Date;
-
 import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
-import javax.jms.Message;
-import javax.jms.MessageConsumer;
+import javax.jms.JMSException;
 import javax.jms.ObjectMessage;
 import javax.jms.Session;
 import javax.jms.Topic;
 import javax.jms.TopicConnection;
 import javax.jms.TopicConnectionFactory;
 import javax.jms.TopicSession;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import fi.iki.photon.sanaruudukko.entity.Player;
+import fi.iki.photon.sanaruudukko.entity.Room;
+import fi.iki.photon.sanaruudukko.entity.Round;
+
+/**
+ * Sends the notifications that wake up the wordwaiter requests of the players.
+ *
+ * The waiters are woken by NotificationHub in this server. A notification sent in a
+ * transaction is delivered after the transaction has been committed, as the JMS
+ * messages were, so the woken players find the change. A notification to a room is
+ * one notification, which the hub fans out to the players in the room. A change
+ * that gives the room a new version in RoomSnapshots gets it after the commit as
+ * well, just before the players are woken up, so that a snapshot rendered from the
+ * rows before the commit is never kept for the new version.
+ *
+ * If the system property sanaruudukko.jms.bridge is true, the changes are also
+ * published to the JMS topic after the commit, so that NotificationBridge updates
+ * the versions and the scoreboards on the other servers and wakes up the players
+ * waiting there.
+ */
 
 @Stateless
 public class MessageManager {
 
+    private static final boolean bridge = Boolean.getBoolean("sanaruudukko.jms.bridge");
+
+    /** The kinds of change published to the other servers. */
+
+    static final String PLAYERS = "players";
+    static final String CHAT = "chat";
+    static final String DIRECTORY = "directory";
+
     @Resource(lookup = "sanaruudukkoCF")
     private TopicConnectionFactory tcf;
     
     @Resource(lookup = "sanaruudukkoTopic")
     private Topic topic;
     
+    @EJB
+    private NotificationHub hub;
+
+    @EJB
+    private RoomSnapshots snapshots;
+
+    @Resource
+    private TransactionSynchronizationRegistry tsr;
+
+    /**
+     * Notifies the players in the given room that a round has started or ended. The
+     * other servers give the room a new version and read the scoreboard of the given
+     * round again.
+     *
+     * @param roomId
+     * @param roundId the round that has started or ended, or -1
+     * @param except name of a player who isn't notified, such as the player who made the
+     *            change, or null
+     */
+
+    public void sendRoomNotify(final int roomId, final int roundId, final @Nullable String except) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                hub.signalRoom(roomId, except);
+                if (bridge) {
+                    publish(PLAYERS, roomId, roundId, except);
+                }
+            }
+        });
+    }
 
-    public void sendNewWordsNotify(String playerName) {
-        sendNotify(playerName);
+    /**
+     * Notifies the players in the given room of a change in the player list or the words.
+     * The room gets a new version when the transaction has been committed.
+     *
+     * @param roomItem
+     * @param except name of a player who isn't notified, or null
+     */
+
+    public void sendPlayersNotify(final @NonNull Room roomItem, final @Nullable String except) {
+        final int roomId = roomItem.getId();
+        final Round roundItem = roomItem.getCurrentRound();
+        final int roundId = roundItem != null ? roundItem.getId() : -1;
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                snapshots.changed(roomItem);
+                hub.signalRoom(roomId, except);
+                if (bridge) {
+                    publish(PLAYERS, roomId, roundId, except);
+                }
+            }
+        });
     }
 
-    public void sendNewRoundNotify(String playerName) {
-        sendNotify(playerName);
+    /**
+     * Notifies the players in the given room of a new chat line. The chat version of the
+     * room is increased when the transaction has been committed.
+     *
+     * @param roomItem
+     * @param except name of a player who isn't notified, or null
+     */
+
+    public void sendChatNotify(final @NonNull Room roomItem, final @Nullable String except) {
+        final int roomId = roomItem.getId();
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                snapshots.chatChanged(roomItem);
+                hub.signalRoom(roomId, except);
+                if (bridge) {
+                    publish(CHAT, roomId, -1, except);
+                }
+            }
+        });
     }
 
+    /**
+     * Gives the room list a new version when the transaction has been committed, after
+     * rooms have been created or players have joined or left them.
+     */
+
+    public void sendDirectoryNotify() {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                snapshots.directoryChanged();
+                if (bridge) {
+                    publish(DIRECTORY, -1, -1, null);
+                }
+            }
+        });
+    }
 
-    public void sendNotify(String playerName) {
-        System.out.println("Send notify to " + playerName);
-        try {
- 
-            TopicConnection topicConnection = tcf.createTopicConnection();
-            
-            TopicSession ts = topicConnection.createTopicSession(true, Session.AUTO_ACKNOWLEDGE);
-            
-            ObjectMessage message = ts.createObjectMessage();
-            
-            message.setStringProperty("player", playerName);
-            
-            ts.createProducer(topic).send(message);
+    /**
+     * Records the room of the given player in NotificationHub after the transaction has
+     * been committed, so the player gets the notifications to the room the player has
+     * joined, created or left at once, and not only after the next check. The room is
+     * read when the transaction is committed, so the last change in the transaction
+     * counts.
+     *
+     * @param p
+     */
+
+    public void sendRoomChange(final @NonNull Player p) {
+        final String playerName = p.getName();
+        if (playerName == null) return;
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                Room roomItem = p.getRoom();
+                hub.enter(playerName, roomItem != null ? roomItem.getId() : -1);
+            }
+        });
+    }
 
-            topicConnection.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Runs the given task after the current transaction has been committed, or now if
+     * there is no transaction. The task isn't run if the transaction is rolled back.
+     *
+     * @param task
+     */
+
+    private void afterCommit(final @NonNull Runnable task) {
+        if (tsr.getTransactionStatus() != javax.transaction.Status.STATUS_ACTIVE) {
+            task.run();
+            return;
         }
-    }        
+        tsr.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Nothing to do.
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == javax.transaction.Status.STATUS_COMMITTED) {
+                    task.run();
+                }
+            }
+        });
+    }
 
-    public Status trueWordWaiter(String name) {
-        if (name == null) return null;
+    /**
+     * Publishes a change to the other servers. This is called after the transaction has
+     * been committed, so the session isn't transacted and the message is sent at once.
+     *
+     * @param change PLAYERS, CHAT or DIRECTORY
+     * @param roomId the room that changed, or -1
+     * @param roundId the round whose words changed, or -1
+     * @param except name of a player in the room who isn't notified, or null
+     */
+
+    private void publish(@NonNull String change, int roomId, int roundId, @Nullable String except) {
+        TopicConnection topicConnection = null;
         try {
-            TopicConnection topicConnection = tcf.createTopicConnection();
+            topicConnection = tcf.createTopicConnection();
             
             TopicSession ts = topicConnection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
             
-            // Create a consumer with selector player = 'thisplayer'
-            MessageConsumer mc = ts.createConsumer(topic, "player = '" + name + "'");
-            
-            topicConnection.start();
-            
-            boolean waitNewMessages = true;
-
-            Date waitExpires = new Date();
-            waitExpires.setTime(waitExpires.getTime() + 15000);
+            ObjectMessage message = ts.createObjectMessage();
             
-            while (waitNewMessages) {
-                Message m = mc.receive(1000);
-                
-                if (m != null) {
-                    System.out.println("Got notify for " + m.getStringProperty("player"));
-                    waitNewMessages = false;
-                }
-                if (waitExpires.before(new Date())) {
-                    waitNewMessages = false;
-                }
-                
+            message.setStringProperty("change", change);
+            if (roomId >= 0) {
+                message.setIntProperty("room", roomId);
+            }
+            if (roundId >= 0) {
+                message.setIntProperty("round", roundId);
+            }
+            if (except != null) {
+                message.setStringProperty("except", except);
             }
-            topicConnection.close();
+            message.setStringProperty("node", hub.getNode());
             
+            ts.createProducer(topic).send(message);
         } catch (Exception e) {
             e.printStackTrace();
-        }
-        Status s = new Status();
-        s.newChat = s.newWords = true;
-        return s;
-        /*
-         * THE FOLLOWING CODE WAS REPLACED BY THE PRECEDING CODE ON 8.4.2013.
-         * Kept here for a while if there are problems with the preceding code.
-         * 
-        final int MAX_LOOPED = 75;
-        System.out.println("Waiting");
-        boolean newWords = false, newChat = false, newRound = false;
-        int looped = 0;
-        while (looped < MAX_LOOPED && ! newWords && ! newChat && ! newRound) {
-            try {
-                tx.begin();
-
-                Player p2 = em.find(Player.class, name);
-                Room roomItem = rm.getRoom(p2);
-                
-                newWords = p2.isNewWords();
-                if (getLastChat(roomItem) >= p2.getLastChat()) {
-                    newChat = true;
-                }
-                
-                newRound = p2.isNewRound();
-                tx.commit();
-            } catch (SecurityException | IllegalStateException
-                    | RollbackException | HeuristicMixedException
-                    | HeuristicRollbackException | SystemException | NotSupportedException e1) {
-                e1.printStackTrace();
-            }
-            
-            if (! newWords && ! newRound) {
+        } finally {
+            if (topicConnection != null) {
                 try {
-                    Thread.sleep(200);
-                } catch (InterruptedException e) {
-                    // If interrupted for some reason, exit
-                    looped = MAX_LOOPED;
+                    topicConnection.close();
+                } catch (JMSException e) {
+                    e.printStackTrace();
                 }
             }
-            looped++;
         }
-        System.out.println("Waited " + newWords + " " + newRound + " " + newChat);
-
-        Status s = new Status();
-        s.newWords = newWords;
-        s.newChat = newChat;
-
-        if (looped == MAX_LOOPED) {
-            s.newWords = s.newChat = true;
-        }
-        
-        try {
-            tx.begin();
-
-            Player p2 = em.find(Player.class, name);
-
-            if (newRound) {
-                p2.setNewRound(false);
-            }
-            tx.commit();
-        } catch (SecurityException | IllegalStateException
-                | RollbackException | HeuristicMixedException
-                | HeuristicRollbackException | SystemException | NotSupportedException e1) {
-            e1.printStackTrace();
-        }
-        return s;
-        */
     }
-
-
-
 }
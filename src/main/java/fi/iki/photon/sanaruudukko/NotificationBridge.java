@@ -0,0 +1,57 @@
+package fi.iki.photon.sanaruudukko;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Applies the changes published by the other servers to this server: gives the
+ * room or the room list a new version, drops the scoreboard of a round whose words
+ * changed, and then wakes up the players waiting on this server.
+ *
+ * The notifications are published to the topic only if the system property
+ * sanaruudukko.jms.bridge is set, so on a single server this gets nothing. The
+ * changes made by this server itself have already been applied and are skipped.
+ */
+
+@MessageDriven(mappedName = "sanaruudukkoTopic", activationConfig = {
+        @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Topic") })
+public class NotificationBridge implements MessageListener {
+
+    @EJB
+    private NotificationHub hub;
+
+    @EJB
+    private RoomSnapshots snapshots;
+
+    @EJB
+    private RoundIndex index;
+
+    @Override
+    public void onMessage(Message m) {
+        try {
+            if (hub.getNode().equals(m.getStringProperty("node"))) return;
+            String change = m.getStringProperty("change");
+            if (MessageManager.DIRECTORY.equals(change)) {
+                snapshots.directoryChanged();
+                return;
+            }
+            if (! m.propertyExists("room")) return;
+            int roomId = m.getIntProperty("room");
+            if (MessageManager.CHAT.equals(change)) {
+                snapshots.chatChanged(roomId);
+            } else {
+                if (m.propertyExists("round")) {
+                    index.remove(m.getIntProperty("round"));
+                }
+                snapshots.changed(roomId);
+            }
+            hub.signalRoom(roomId, m.getStringProperty("except"));
+        } catch (JMSException e) {
+            e.printStackTrace();
+        }
+    }
+}
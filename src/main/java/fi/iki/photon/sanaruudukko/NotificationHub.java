@@ -0,0 +1,273 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Wakes up the wordwaiter requests of a player when something changes for the
+ * player.
+ *
+ * Every player has a signal that counts the notifications sent to the player and
+ * holds the waiters of the player. A wordwaiter reads the count before it checks
+ * for changes, and registers a waiter for that count, so a notification sent
+ * between the check and the registration isn't missed. A waiter is a callback,
+ * not a thread, so a waiting request costs only its entry here. A notification
+ * wakes only the waiters of its own player, and nothing is done for players who
+ * have never waited. The signals are made only for players who have logged in, and
+ * a signal without waiters is dropped when the player hasn't waited for
+ * IDLE_MINUTES.
+ *
+ * The hub also knows the room of every player who waits, so a notification to a
+ * room is fanned out here to the players in the room, without a query. The room is
+ * recorded when the player's data is checked, and when the player joins, creates or
+ * leaves a room, after that has been committed. The room of a player is changed
+ * under the lock of the player's signal.
+ *
+ * The hub only knows about the waiters of this server. MessageManager forwards
+ * the notifications to the other servers through JMS if that is enabled. The hub
+ * uses no resources, so it doesn't take part in transactions.
+ */
+
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class NotificationHub {
+
+    /**
+     * The notifications and the waiters of one player.
+     */
+
+    private static final class Signal {
+        private long count;
+        private List<Runnable> waiters;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean retired;
+        // The room of the player, or -1. Guarded by the signal, like the rest.
+        private int room = -1;
+
+        synchronized long getCount() {
+            lastUsed = System.currentTimeMillis();
+            return count;
+        }
+
+        /**
+         * Counts a notification and returns the waiters to be woken up.
+         *
+         * @return Waiters, or null if there were none.
+         */
+
+        synchronized @Nullable List<Runnable> signal() {
+            count++;
+            List<Runnable> w = waiters;
+            waiters = null;
+            return w;
+        }
+
+        synchronized boolean add(long seen, @NonNull Runnable waiter) {
+            // A retired signal is no longer notified, so the caller checks again.
+            if (count != seen || retired) return false;
+            lastUsed = System.currentTimeMillis();
+            if (waiters == null) {
+                waiters = new ArrayList<>(2);
+            }
+            waiters.add(waiter);
+            return true;
+        }
+
+        /**
+         * Retires the signal if it has no waiters and hasn't been used since the given
+         * time.
+         *
+         * @param before
+         * @return true if the signal was retired.
+         */
+
+        synchronized boolean retire(long before) {
+            if (retired || (waiters != null && ! waiters.isEmpty()) || lastUsed >= before) return false;
+            retired = true;
+            return true;
+        }
+
+        synchronized void remove(@NonNull Runnable waiter) {
+            if (waiters != null) {
+                waiters.remove(waiter);
+            }
+        }
+    }
+
+    private static final long IDLE_MINUTES = 10;
+
+    private final String node = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<String, Signal> signals = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Integer, Set<String>> members = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the identifier of this server, which is sent with the notifications
+     * forwarded to the other servers.
+     *
+     * @return Node identifier.
+     */
+
+    public @NonNull String getNode() {
+        String n = node;
+        return n != null ? n : "";
+    }
+
+    private @NonNull Signal getSignal(@NonNull String playerName) {
+        Signal s = signals.get(playerName);
+        if (s == null) {
+            Signal created = new Signal();
+            s = signals.putIfAbsent(playerName, created);
+            if (s == null) s = created;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the number of notifications sent to the given player since the player
+     * began to wait. This must be called only for a player who has logged in.
+     *
+     * @param playerName
+     * @return Notification count.
+     */
+
+    public long getCount(@NonNull String playerName) {
+        return getSignal(playerName).getCount();
+    }
+
+    /**
+     * Wakes up the waiters of the players in the given room. The waiters are run in
+     * the calling thread, so they must only hand the work over to another thread.
+     *
+     * @param roomId
+     * @param except name of a player who isn't woken up, or null
+     */
+
+    public void signalRoom(int roomId, @Nullable String except) {
+        Set<String> players = members.get(Integer.valueOf(roomId));
+        if (players == null) return;
+        for (String playerName : players) {
+            if (playerName.equals(except)) continue;
+            Signal s = signals.get(playerName);
+            if (s != null) {
+                wake(s);
+            }
+        }
+    }
+
+    private static void wake(@NonNull Signal s) {
+        List<Runnable> waiters = s.signal();
+        if (waiters == null) return;
+        for (Runnable waiter : waiters) {
+            try {
+                waiter.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Records the room of a player, when the player's data is checked or the player has
+     * changed rooms. The player then gets the notifications to the room. Nothing is
+     * recorded for a player who doesn't wait on this server, since the room is recorded
+     * when the player's data is checked before the player waits.
+     *
+     * @param playerName
+     * @param roomId the room of the player, or -1 if the player isn't in a room
+     */
+
+    public void enter(@NonNull String playerName, int roomId) {
+        Signal s = signals.get(playerName);
+        if (s == null) return;
+        synchronized (s) {
+            if (s.retired || s.room == roomId) return;
+            if (s.room >= 0) {
+                Set<String> players = members.get(Integer.valueOf(s.room));
+                if (players != null) {
+                    players.remove(playerName);
+                }
+            }
+            s.room = roomId;
+            if (roomId < 0) return;
+            Integer room = Integer.valueOf(roomId);
+            Set<String> players = members.get(room);
+            if (players == null) {
+                Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                players = members.putIfAbsent(room, created);
+                if (players == null) players = created;
+            }
+            players.add(playerName);
+        }
+    }
+
+    /**
+     * Drops the signals and rooms of the players who haven't waited for IDLE_MINUTES.
+     * A signal that has waiters is kept.
+     */
+
+    @Schedule(minute = "*/5", hour = "*", persistent = false)
+    public void evictIdle() {
+        long before = System.currentTimeMillis() - IDLE_MINUTES * 60 * 1000L;
+        for (Map.Entry<String, Signal> e : signals.entrySet()) {
+            Signal s = e.getValue();
+            synchronized (s) {
+                if (! s.retire(before)) continue;
+                signals.remove(e.getKey(), s);
+                if (s.room >= 0) {
+                    Set<String> players = members.get(Integer.valueOf(s.room));
+                    if (players != null) {
+                        players.remove(e.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a waiter that is run once when the given player is notified after the given
+     * count.
+     *
+     * @param playerName
+     * @param seen notification count from getCount before the player's data was checked
+     * @param waiter
+     * @return true if the waiter was added, false if the player has already been notified.
+     */
+
+    public boolean register(@NonNull String playerName, long seen, @NonNull Runnable waiter) {
+        return getSignal(playerName).add(seen, waiter);
+    }
+
+    /**
+     * Removes a waiter that has not been run, when its wait has ended otherwise.
+     *
+     * @param playerName
+     * @param waiter
+     */
+
+    public void cancel(@NonNull String playerName, @NonNull Runnable waiter) {
+        Signal s = signals.get(playerName);
+        if (s != null) {
+            s.remove(waiter);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Rendered replies that don't change, by ETag.
+ *
+ * The ETag of a cached reply names everything the reply depends on, such as the
+ * round and the dictionary of an allwords reply or the directory version of a
+ * getrooms reply, so a reply is never updated, only replaced by a reply with a
+ * new ETag. The least recently used replies are dropped if there are more than
+ * MAX_REPLIES. A reply also keeps its gzip compressed bytes once they have been
+ * needed, so a large reply is compressed only once.
+ */
+
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ReplyCache {
+
+    /**
+     * A cached reply: the data element as written by ReplyWriter, and the whole reply
+     * compressed with gzip after it has been compressed the first time.
+     */
+
+    public static final class Reply {
+        private final String data;
+        private volatile byte[] compressed;
+
+        Reply(@NonNull String data) {
+            this.data = data;
+        }
+
+        public @NonNull String getData() {
+            String d = data;
+            return d != null ? d : "";
+        }
+
+        public @Nullable byte[] getCompressed() {
+            return compressed;
+        }
+
+        public void setCompressed(@NonNull byte[] compressed) {
+            this.compressed = compressed;
+        }
+    }
+
+    private static final int MAX_REPLIES = 512;
+
+    private final LinkedHashMap<String, Reply> replies = new LinkedHashMap<String, Reply>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Reply> eldest) {
+            return size() > MAX_REPLIES;
+        }
+    };
+
+    /**
+     * Returns the reply with the given ETag.
+     *
+     * @param tag
+     * @return Reply, or null if it isn't cached.
+     */
+
+    public @Nullable Reply get(@NonNull String tag) {
+        synchronized (replies) {
+            return replies.get(tag);
+        }
+    }
+
+    /**
+     * Stores a reply.
+     *
+     * @param tag
+     * @param data the data element of the reply as written by ReplyWriter
+     * @return The stored reply.
+     */
+
+    public @NonNull Reply put(@NonNull String tag, @NonNull String data) {
+        Reply reply = new Reply(data);
+        synchronized (replies) {
+            replies.put(tag, reply);
+        }
+        return reply;
+    }
+}
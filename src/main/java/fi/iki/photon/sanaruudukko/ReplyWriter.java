@@ -0,0 +1,363 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Writes the replies of the game as XML or JSON.
+ *
+ * The renderers describe a reply as nested elements, and the writer chosen by the
+ * Accept header of the request turns them into one format. XML stays the default,
+ * and JSON is used when the client asks for application/json before any XML type.
+ *
+ * Elements that repeat, such as the players or the chat lines, are written between
+ * startList and endList with the name of the repeating element. XML writes them as
+ * repeated elements, as before, and JSON as an array named after the element.
+ * Numbers and flags are written as JSON numbers and booleans.
+ *
+ * A reply is written while the transaction is open, since the renderers read
+ * entities, and it is sent to the client afterwards. Replies of at least
+ * GZIP_THRESHOLD characters are compressed with gzip if the client accepts it, as
+ * they are streamed to the client. The small status replies are sent as they are.
+ * The ETag of a compressed reply ends with GZIP_SUFFIX, since the compressed
+ * bytes differ from the plain ones.
+ */
+
+public abstract class ReplyWriter {
+
+    public static final int GZIP_THRESHOLD = 1024;
+
+    public static final String GZIP_SUFFIX = "-gzip";
+
+    private boolean gzip;
+
+    /**
+     * Returns an empty writer for the format and the encoding the client accepts.
+     *
+     * @param accept the Accept header of the request, or null
+     * @param acceptEncoding the Accept-Encoding header of the request, or null
+     * @return Writer.
+     */
+
+    public static @NonNull ReplyWriter create(@Nullable String accept, @Nullable String acceptEncoding) {
+        ReplyWriter w = new XmlWriter();
+        if (accept != null) {
+            int json = accept.indexOf("application/json");
+            int xml = accept.indexOf("xml");
+            if (json >= 0 && (xml < 0 || json < xml)) {
+                w = new JsonWriter();
+            }
+        }
+        w.gzip = acceptsGzip(acceptEncoding);
+        return w;
+    }
+
+    /**
+     * Does the given Accept-Encoding header allow gzip.
+     *
+     * @param acceptEncoding
+     * @return true if gzip is listed without q=0.
+     */
+
+    private static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            if (! "gzip".equals(name) && ! "x-gzip".equals(name)) continue;
+            for (int i = 1; i < params.length; i++) {
+                String q = params[i].replace(" ", "");
+                if (q.startsWith("q=") && q.substring(2).matches("0(\\.0*)?")) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new empty writer of the same format, for writing a part of a reply
+     * that is added to replies with raw.
+     *
+     * @return Writer.
+     */
+
+    public abstract @NonNull ReplyWriter fragment();
+
+    /**
+     * Returns the name of the format, "xml" or "json".
+     *
+     * @return Format.
+     */
+
+    public abstract @NonNull String getFormat();
+
+    /**
+     * Starts an element.
+     *
+     * @param name
+     */
+
+    public abstract void start(@NonNull String name);
+
+    /**
+     * Ends an element.
+     *
+     * @param name
+     */
+
+    public abstract void end(@NonNull String name);
+
+    /**
+     * Writes an element with the given text, escaped.
+     *
+     * @param name
+     * @param text null is written as an empty element
+     */
+
+    public abstract void element(@NonNull String name, @Nullable CharSequence text);
+
+    /**
+     * Writes an element with the given number.
+     *
+     * @param name
+     * @param value
+     */
+
+    public abstract void element(@NonNull String name, long value);
+
+    /**
+     * Writes an element with a flag.
+     *
+     * @param name
+     * @param value
+     */
+
+    public abstract void flag(@NonNull String name, boolean value);
+
+    /**
+     * Starts a list of repeating elements with the given name.
+     *
+     * @param name
+     */
+
+    public abstract void startList(@NonNull String name);
+
+    /**
+     * Ends a list of repeating elements.
+     *
+     * @param name
+     */
+
+    public abstract void endList(@NonNull String name);
+
+    /**
+     * Writes an element that has already been written by a fragment of this writer.
+     *
+     * @param fragment
+     */
+
+    public abstract void raw(@NonNull String fragment);
+
+    /**
+     * Returns the size of what has been written.
+     *
+     * @return Length.
+     */
+
+    public abstract int length();
+
+    /**
+     * Returns the media type of the replies.
+     *
+     * @return Media type.
+     */
+
+    protected abstract @NonNull String getMediaType();
+
+    /**
+     * Writes the whole reply, as it is sent to the client without compression.
+     *
+     * @param output
+     * @throws IOException
+     */
+
+    protected abstract void writeTo(@NonNull OutputStream output) throws IOException;
+
+    /**
+     * Is the reply compressed when it is sent.
+     *
+     * @return true if the client accepts gzip and the reply is large enough.
+     */
+
+    public boolean isCompressed() {
+        return gzip && length() >= GZIP_THRESHOLD;
+    }
+
+    /**
+     * Returns the whole reply compressed with gzip, for keeping in ReplyCache.
+     *
+     * @return Compressed reply.
+     */
+
+    public @NonNull byte[] compress() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length() / 4 + 64);
+        try {
+            GZIPOutputStream gz = new GZIPOutputStream(bytes);
+            writeTo(gz);
+            gz.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] compressed = bytes.toByteArray();
+        return compressed != null ? compressed : new byte[0];
+    }
+
+    /**
+     * Returns the reply to be sent to the client.
+     *
+     * @return Reply.
+     */
+
+    public Response reply() {
+        return reply(null, null);
+    }
+
+    /**
+     * Returns the reply to be sent to the client with the given ETag. The browser
+     * keeps the reply and asks for it again with If-None-Match.
+     *
+     * @param tag
+     * @return Reply.
+     */
+
+    public Response reply(@NonNull EntityTag tag) {
+        return reply(tag, null);
+    }
+
+    /**
+     * Returns the reply to be sent to the client.
+     *
+     * @param tag ETag of the reply, or null
+     * @param compressed the reply as compressed by compress earlier, or null to compress it now if needed
+     * @return Reply.
+     */
+
+    public Response reply(@Nullable EntityTag tag, @Nullable byte[] compressed) {
+        Response.ResponseBuilder b;
+        EntityTag t = tag;
+        if (isCompressed()) {
+            b = Response.ok(compressed != null ? compressed : compressedStream(), getMediaType());
+            b.header("Content-Encoding", "gzip");
+            if (t != null) {
+                t = new EntityTag(t.getValue() + GZIP_SUFFIX, t.isWeak());
+            }
+        } else {
+            b = Response.ok(stream(), getMediaType());
+        }
+        b.header("Vary", "Accept-Encoding");
+        if (t != null) {
+            b.tag(t).cacheControl(revalidate());
+        }
+        return b.build();
+    }
+
+    /**
+     * Cached replies are revalidated by the browser every time they are used. The
+     * URLs have the passcode of the player, so the replies are private. This is made
+     * for every reply, since CacheControl needs the JAX-RS runtime, which the
+     * benchmarks don't have.
+     *
+     * @return Cache control.
+     */
+
+    private static @NonNull CacheControl revalidate() {
+        CacheControl cc = new CacheControl();
+        cc.setNoCache(true);
+        cc.setPrivate(true);
+        cc.setNoTransform(false);
+        return cc;
+    }
+
+    private @NonNull StreamingOutput stream() {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                writeTo(output);
+                output.flush();
+            }
+        };
+    }
+
+    private @NonNull StreamingOutput compressedStream() {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                GZIPOutputStream gz = new GZIPOutputStream(output, 8192);
+                writeTo(gz);
+                gz.finish();
+                output.flush();
+            }
+        };
+    }
+
+    /**
+     * Sends the reply through a servlet response, for the replies that are not
+     * returned through JAX-RS.
+     *
+     * @param response
+     * @throws IOException
+     */
+
+    public void send(@NonNull HttpServletResponse response) throws IOException {
+        response.setContentType(getMediaType());
+        response.setHeader("Vary", "Accept-Encoding");
+        OutputStream output = response.getOutputStream();
+        if (isCompressed()) {
+            response.setHeader("Content-Encoding", "gzip");
+            GZIPOutputStream gz = new GZIPOutputStream(output, 8192);
+            writeTo(gz);
+            gz.finish();
+        } else {
+            writeTo(output);
+        }
+        output.flush();
+    }
+
+    /**
+     * Returns a reply telling the browser that the reply it has with the given
+     * ETag is still current.
+     *
+     * @param tag
+     * @return Reply.
+     */
+
+    public static Response notModified(@NonNull EntityTag tag) {
+        return Response.notModified(tag).header("Vary", "Accept-Encoding").cacheControl(revalidate()).build();
+    }
+
+    /**
+     * Writes a reply that only has the given status, and returns it.
+     *
+     * @param status
+     * @return Reply.
+     */
+
+    public Response status(int status) {
+        start("data");
+        element("status", status);
+        end("data");
+        return reply();
+    }
+}
@@ -15,9 +15,9 @@ import org.eclipse.jdt.annotation.Nullable;
 
 import fi.iki.photon.sanaruudukko.entity.ChatLine;
 import fi.iki.photon.sanaruudukko.entity.Player;
+import fi.iki.photon.sanaruudukko.entity.PlayerScore;
 import fi.iki.photon.sanaruudukko.entity.Room;
 import fi.iki.photon.sanaruudukko.entity.Round;
-import fi.iki.photon.sanaruudukko.entity.ValidWord;
 import fi.iki.photon.sanaruudukko.entity.Word;
 
 /**
@@ -36,6 +36,12 @@ public class RoomManager {
     @EJB
     private MessageManager mm;
 
+    @EJB
+    private DictionaryManager dm;
+
+    @EJB
+    private RoundIndex index;
+
     /**
      * Returns the room the player is in.
      * @param player
@@ -51,14 +57,19 @@ public class RoomManager {
     }
 
     /**
-     * Returns the room data as an XML.
+     * Writes the room data as an XML.
+     * @param out
      * @param r
-     * @return Data as an XML string.
      */
     
-    public static @NonNull String displayRoom(@Nullable Room r) {
-        if (r == null) return "";
-        return "<room><id>" + r.getId() + "</id><roomname>" + r.getName() + "</roomname></room>";
+    public static void displayRoom(@NonNull ReplyWriter out, @Nullable Room r) {
+        if (r == null) return;
+        out.start("room");
+        out.element("id", r.getId());
+        out.element("roomname", r.getName());
+        out.element("boardsize", r.getBoardSize());
+        out.element("language", r.getLanguage());
+        out.end("room");
     }
 
     /**
@@ -76,6 +87,7 @@ public class RoomManager {
         p.setReady(false);
         p.setMoreTime(false);
         p.setRoom(joinedRoom);
+        mm.sendRoomChange(p);
         
         
     }
@@ -85,32 +97,44 @@ public class RoomManager {
      * @param p
      */
     
-    public static void leaveRoom(@NonNull Player p) {
+    public void leaveRoom(@NonNull Player p) {
         p.setRoom(null);
+        mm.sendRoomChange(p);
     }
     
     /**
-     * Returns all the rooms in the system.
-     * @return Room list as an XML string.
+     * Writes all the rooms in the system.
+     * @param out
      */
 
-    public @NonNull String displayRooms() {
+    public void displayRooms(@NonNull ReplyWriter out) {
         List<Room> rooms = em.createQuery("SELECT r FROM Room r ORDER BY r.id", Room.class).getResultList();
 
-        StringBuilder result = new StringBuilder();
-        result.append("<rooms>");
+        out.start("rooms");
+        out.startList("room");
         for (Room r : rooms) {
             if (r != null) {
                 int activePlayers = countActivePlayers(r, 20);
                 if (activePlayers > 0) {
-                    result.append("<room><id>" + r.getId() + "</id><roomname>" + r.getName() + "</roomname>");
-                    result.append("<players>" + activePlayers + "</players></room>");
+                    out.start("room");
+                    out.element("id", r.getId());
+                    out.element("roomname", r.getName());
+                    out.element("boardsize", r.getBoardSize());
+                    out.element("language", r.getLanguage());
+                    out.element("players", activePlayers);
+                    out.end("room");
                 }
             }
         }
-        result.append("</rooms>");
-        String returnVal = result.toString();
-        return returnVal != null ? returnVal : "";
+        out.endList("room");
+        out.end("rooms");
+        out.start("languages");
+        out.startList("language");
+        for (String l : dm.getLanguages()) {
+            out.element("language", l);
+        }
+        out.endList("language");
+        out.end("languages");
     }
 
     /**
@@ -144,7 +168,7 @@ public class RoomManager {
     }
     
     /**
-     * Creates a new room with the given name.
+     * Creates a new room with the given name, board size and language.
      * 
      * If the system has old rooms with no active players, delete such
      * a room and all its contents, kick the users, and reuse its id for the new room.
@@ -152,10 +176,12 @@ public class RoomManager {
      * Otherwise just create a new instance of a room.
      * 
      * @param roomName
+     * @param boardSize
+     * @param language
      * @return The newly created room.
      */
 
-    public @NonNull Room newRoom(String roomName) {
+    public @NonNull Room newRoom(String roomName, int boardSize, String language) {
         List<Room> rooms = em.createQuery("SELECT r FROM Room r", Room.class).getResultList();
     
         Room chosenRoom = null;
@@ -172,12 +198,15 @@ public class RoomManager {
         if (chosenRoom != null) {
             // reuse chosen room
             chosenRoom.setName(roomName);
+            chosenRoom.setBoardSize(boardSize);
+            chosenRoom.setLanguage(language);
             chosenRoom.setCurrentRound(null);
 
             List<Player> playersInRoom = em.createQuery("SELECT p FROM Player p WHERE p.room = ?1", Player.class).setParameter(1, chosenRoom).getResultList();
 
             for (Player p : playersInRoom) {
                 p.setRoom(null);
+                mm.sendRoomChange(p);
             }
 
             List<ChatLine> chatsInRoom = em.createQuery("SELECT c FROM ChatLine c WHERE c.room = ?1", ChatLine.class).setParameter(1, chosenRoom).getResultList();
@@ -186,6 +215,12 @@ public class RoomManager {
                 em.remove(c);
             }
             
+            List<PlayerScore> scoresInRoom = em.createQuery("SELECT ps FROM PlayerScore ps WHERE ps.room = ?1", PlayerScore.class).setParameter(1, chosenRoom).getResultList();
+            
+            for (PlayerScore ps : scoresInRoom) {
+                em.remove(ps);
+            }
+            
             List<Round> roundsInRoom = em.createQuery("SELECT ro FROM Round ro WHERE ro.room = ?1", Round.class).setParameter(1, chosenRoom).getResultList();
             
             for (Round ro : roundsInRoom) {
@@ -195,12 +230,7 @@ public class RoomManager {
                     em.remove(w);
                 }
 
-                List<ValidWord> validWordsInRound = em.createQuery("SELECT vw FROM ValidWord vw WHERE vw.round = ?1", ValidWord.class).setParameter(1, ro).getResultList();
-
-                for (ValidWord w : validWordsInRound) {
-                    em.remove(w);
-                }
-
+                index.remove(ro);
                 em.remove(ro);
             }
 
@@ -210,6 +240,8 @@ public class RoomManager {
         }
         Room newRoom = new Room();
         newRoom.setName(roomName);
+        newRoom.setBoardSize(boardSize);
+        newRoom.setLanguage(language);
         em.persist(newRoom);
         return newRoom;
     }
@@ -229,27 +261,23 @@ public class RoomManager {
     
     /**
      * Notifies the players in the given room that are not the given player, for new chat items.
+     * The room gets a new chat version after the commit.
      * @param playerItem
      * @param roomItem
      */
     
     public void notifyForNewChat(@NonNull Player playerItem, @NonNull Room roomItem) {
-        notifyForNewWords(playerItem, roomItem);
+        mm.sendChatNotify(roomItem, playerItem.getName());
     }
 
     /**
      * Notifies the players in the given room that are not the given player, for new word/player items.
+     * The room gets a new version after the commit, so its snapshot is rendered again.
      * @param playerItem
      * @param roomItem
      */
 
     public void notifyForNewWords(@NonNull Player playerItem, @NonNull Room roomItem) {
-        List<Player> playersInRoom = em.createQuery("SELECT p FROM Player p WHERE p.room = ?1", Player.class).setParameter(1, roomItem).getResultList();
-        
-        for (Player p : playersInRoom) { 
-            if (!p.equals(playerItem)) {
-                mm.sendNotify(p.getName());
-            }
-        }
+        mm.sendPlayersNotify(roomItem, playerItem.getName());
     }
 }
@@ -0,0 +1,251 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import fi.iki.photon.sanaruudukko.entity.Room;
+
+/**
+ * The version and the latest rendered snapshot of every room.
+ *
+ * The version of a room is increased whenever something the players see in the
+ * player list changes, and the players are notified. The snapshot holds the parts
+ * of the player list that are the same for every viewer, rendered once for a
+ * version, so the wordwaiter replies of all the players in the room share it and
+ * only render the viewer's own words. The rooms have a snapshot for each reply
+ * format that is in use.
+ *
+ * Every snapshot has a serial number, which the wordwaiter sends to the client as
+ * the version of the player list. The snapshot also remembers when it was last
+ * found current, so a client that has the latest serial of a room that hasn't
+ * changed can be told so without checking the players again. The room also counts its chat lines. Both start
+ * over when the server starts, so the versions sent to the clients include the
+ * epoch, the time the server was started.
+ *
+ * The directory version is increased when rooms are created or players join or
+ * leave them, so the cached room list is written again.
+ */
+
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RoomSnapshots {
+
+    /**
+     * The player list of a room as seen by the other players. A snapshot is
+     * immutable, and it is valid as long as its key matches the state of the room.
+     */
+
+    public static final class Snapshot {
+        private static final AtomicLong serials = new AtomicLong();
+
+        private final long serial = serials.incrementAndGet();
+        private final int version;
+        private final String key;
+        private final Map<String, String> fragments;
+        private final Map<String, Integer> totalScores;
+        private volatile long checked = System.currentTimeMillis();
+
+        /**
+         * @param version the room version the snapshot was rendered for
+         * @param key the room version and everything else the snapshot depends on
+         * @param fragments the player elements as seen by the other players, by player name
+         * @param totalScores the total scores of the players, by player name
+         */
+
+        Snapshot(int version, @NonNull String key, @NonNull Map<String, String> fragments, @NonNull Map<String, Integer> totalScores) {
+            this.version = version;
+            this.key = key;
+            this.fragments = Collections.unmodifiableMap(fragments);
+            this.totalScores = Collections.unmodifiableMap(totalScores);
+        }
+
+        @NonNull String getKey() {
+            return key;
+        }
+
+        long getSerial() {
+            return serial;
+        }
+
+        /**
+         * Returns the player element of the given player as seen by the other players.
+         *
+         * @param name
+         * @return Rendered player, or null if the player wasn't listed.
+         */
+
+        @Nullable String getFragment(@NonNull String name) {
+            return fragments.get(name);
+        }
+
+        int getTotalScore(@NonNull String name) {
+            Integer score = totalScores.get(name);
+            return score != null ? score.intValue() : 0;
+        }
+    }
+
+    private final long epoch = System.currentTimeMillis();
+
+    private final AtomicInteger directoryVersion = new AtomicInteger();
+
+    private final ConcurrentHashMap<Integer, AtomicInteger> versions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AtomicInteger> chatVersions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getDirectoryVersion() {
+        return directoryVersion.get();
+    }
+
+    /**
+     * Increases the directory version. This must be called after the change has been
+     * committed, so that a room list written for the new version has the change.
+     */
+
+    public void directoryChanged() {
+        directoryVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the current version of the given room.
+     *
+     * @param roomItem
+     * @return Version.
+     */
+
+    public int getVersion(@NonNull Room roomItem) {
+        return count(versions, roomItem);
+    }
+
+    /**
+     * Increases the version of the given room, so its snapshot is rendered again.
+     *
+     * @param roomItem
+     */
+
+    public void changed(@NonNull Room roomItem) {
+        changed(roomItem.getId());
+    }
+
+    /**
+     * Increases the version of the room with the given id.
+     *
+     * @param roomId
+     */
+
+    public void changed(int roomId) {
+        increment(versions, roomId);
+    }
+
+    /**
+     * Returns the number of chat lines said in the given room since the server started.
+     *
+     * @param roomItem
+     * @return Chat version.
+     */
+
+    public int getChatVersion(@NonNull Room roomItem) {
+        return count(chatVersions, roomItem);
+    }
+
+    /**
+     * Increases the chat version of the given room. This must be called after the chat
+     * line has been committed, so that a player who sees the new version also finds the
+     * line.
+     *
+     * @param roomItem
+     */
+
+    public void chatChanged(@NonNull Room roomItem) {
+        chatChanged(roomItem.getId());
+    }
+
+    /**
+     * Increases the chat version of the room with the given id.
+     *
+     * @param roomId
+     */
+
+    public void chatChanged(int roomId) {
+        increment(chatVersions, roomId);
+    }
+
+    private static int count(ConcurrentHashMap<Integer, AtomicInteger> counters, Room roomItem) {
+        AtomicInteger v = counters.get(Integer.valueOf(roomItem.getId()));
+        return v != null ? v.get() : 0;
+    }
+
+    private static void increment(ConcurrentHashMap<Integer, AtomicInteger> counters, int roomId) {
+        Integer key = Integer.valueOf(roomId);
+        AtomicInteger v = counters.get(key);
+        if (v == null) {
+            AtomicInteger created = new AtomicInteger();
+            v = counters.putIfAbsent(key, created);
+            if (v == null) v = created;
+        }
+        v.incrementAndGet();
+    }
+
+    /**
+     * Returns the snapshot of the given room in the given format if it was rendered for the
+     * given key.
+     *
+     * @param roomItem
+     * @param format
+     * @param key
+     * @return Snapshot, or null if there is no snapshot for the key.
+     */
+
+    public @Nullable Snapshot get(@NonNull Room roomItem, @NonNull String format, @NonNull String key) {
+        Snapshot s = snapshots.get(roomItem.getId() + "/" + format);
+        if (s == null || ! s.getKey().equals(key)) return null;
+        s.checked = System.currentTimeMillis();
+        return s;
+    }
+
+    /**
+     * Returns the serial of the latest snapshot of the given room in the given format, if
+     * the room hasn't changed since it was rendered, and it has been found current within
+     * the given time. The parts of the key that change as time passes may have changed
+     * since.
+     *
+     * @param roomItem
+     * @param format
+     * @param maxAge milliseconds
+     * @return Serial, or 0 if there is no such snapshot.
+     */
+
+    public long getCurrentSerial(@NonNull Room roomItem, @NonNull String format, long maxAge) {
+        Snapshot s = snapshots.get(roomItem.getId() + "/" + format);
+        if (s == null || s.version != getVersion(roomItem)) return 0;
+        if (System.currentTimeMillis() - s.checked > maxAge) return 0;
+        return s.getSerial();
+    }
+
+    /**
+     * Stores the latest snapshot of the given room in the given format.
+     *
+     * @param roomItem
+     * @param format
+     * @param snapshot
+     */
+
+    public void put(@NonNull Room roomItem, @NonNull String format, @NonNull Snapshot snapshot) {
+        snapshots.put(roomItem.getId() + "/" + format, snapshot);
+    }
+}
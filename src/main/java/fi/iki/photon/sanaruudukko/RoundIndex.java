@@ -0,0 +1,97 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+import fi.iki.photon.sanaruudukko.entity.Round;
+import fi.iki.photon.sanaruudukko.entity.Word;
+
+/**
+ * The scoreboards of the rounds being played, by round id.
+ *
+ * WordManager updates a round's scoreboard whenever a word is submitted or
+ * disabled, and reads the duplicates, word counts and scores from it. The
+ * scoreboard of a round that isn't in memory, for example after a restart, is
+ * rebuilt from the Word rows of the round. A round's scoreboard is dropped when
+ * the next round starts, and the least recently used ones are dropped if there
+ * are more than MAX_ROUNDS.
+ */
+
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RoundIndex {
+
+    private static final int MAX_ROUNDS = 256;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    private final LinkedHashMap<Integer, Scoreboard> rounds = new LinkedHashMap<Integer, Scoreboard>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Scoreboard> eldest) {
+            return size() > MAX_ROUNDS;
+        }
+    };
+
+    /**
+     * Returns the scoreboard of the given round, reading it from the database if
+     * it isn't in memory.
+     *
+     * @param ro
+     * @return Scoreboard.
+     */
+
+    public @NonNull Scoreboard get(@NonNull Round ro) {
+        Integer key = Integer.valueOf(ro.getId());
+        synchronized (rounds) {
+            Scoreboard sb = rounds.get(key);
+            if (sb != null) return sb;
+        }
+
+        List<Word> words = em.createQuery("SELECT w FROM Word w WHERE w.round = ?1", Word.class).setParameter(1, ro).getResultList();
+        Scoreboard built = new Scoreboard(words, ro.isScored());
+
+        // Another request may have built or updated the scoreboard meanwhile.
+        synchronized (rounds) {
+            Scoreboard sb = rounds.get(key);
+            if (sb != null) return sb;
+            rounds.put(key, built);
+        }
+        return built;
+    }
+
+    /**
+     * Drops the scoreboard of the given round.
+     *
+     * @param ro
+     */
+
+    public void remove(@NonNull Round ro) {
+        remove(ro.getId());
+    }
+
+    /**
+     * Drops the scoreboard of the round with the given id.
+     *
+     * @param roundId
+     */
+
+    public void remove(int roundId) {
+        synchronized (rounds) {
+            rounds.remove(Integer.valueOf(roundId));
+        }
+    }
+}
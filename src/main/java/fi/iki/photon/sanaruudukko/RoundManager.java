@@ -1,5 +1,6 @@
 package fi.iki.photon.sanaruudukko;
 
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -38,48 +39,90 @@ public class RoundManager {
     @EJB
     private MessageManager mm;
 
+    @EJB
+    private BoardPool bp;
+
+    @EJB
+    private RoundIndex index;
+
     /**
-     * Given a round, returns its data as XML.
+     * Given a room and its round, writes the round data as XML. The board is hidden with
+     * question marks until the round has started, and the room tells the board size before
+     * the first round.
+     * 
+     * @param out
+     * @param room
      * @param ro
-     * @return An XML string with the data.
      */
     
-    public static @NonNull String displayRound(@Nullable Round ro) {
-        int roundStatus = 0;
-        String timeResult = "", boardResult = "";
+    public static void displayRound(@NonNull ReplyWriter out, @Nullable Room room, @Nullable Round ro) {
+        out.start("round");
         
-        if (ro == null) { return "<round><board>????????????????</board></round>"; }
-        Calendar c = Calendar.getInstance();
-        c.setTime(ro.getRoundStart());
-        c.add(Calendar.SECOND, Sanaruudukko.ROUNDLENGTH);
-        // c contains end round time.
-        
-        if (ro.getRoundStart().after(new Date())) {
-            roundStatus = 1; // Round starting
-        }
-        
-        if (c.getTime().before(new Date())) {
-            roundStatus = 2; // Round ended
+        if (ro == null) {
+            int side = room != null ? room.getBoardSize() : Bitboard.DEFAULT_SIDE;
+            out.element("board", hiddenBoard(side * side));
+            out.end("round");
+            return;
         }
+        int roundStatus = roundStatus(ro);
     
         // round continues, show the time until the end of the round
         if (roundStatus == 0) {
-            long timeDiff = (c.getTimeInMillis() - new Date().getTime()) / 10; // time difference in hundreths of a second
-            timeResult = "<time>" + timeDiff + "</time>";
+            long timeDiff = (roundEnd(ro) - System.currentTimeMillis()) / 10; // time difference in hundreths of a second
+            out.element("time", timeDiff);
         }
     
         // round starting, show the time until the start of the round
         if (roundStatus == 1) {
             long timeDiff = (ro.getRoundStart().getTime() - new Date().getTime()) / 10; // time difference in hundreths of a second
-            timeResult = "<time>" + timeDiff + "</time><starting>1</starting><board>????????????????</board>";
+            out.element("time", timeDiff);
+            out.element("starting", 1);
+            out.element("board", hiddenBoard(ro.getBoard().length()));
         }
     
         
         if (roundStatus == 0 || roundStatus == 2) {
-            boardResult = "<board>" + ro.getBoard() + "</board>";
+            out.element("board", ro.getBoard());
         }
         
-        return "<round>" + timeResult + boardResult + "</round>";
+        out.end("round");
+    }
+
+    /**
+     * Returns the status of the given round: 0 if it continues, 1 if it is starting
+     * and 2 if it has ended.
+     * 
+     * @param ro
+     * @return Round status.
+     */
+    
+    private static int roundStatus(@NonNull Round ro) {
+        if (! roundContinues(ro)) return 2;
+        if (ro.getRoundStart().getTime() > System.currentTimeMillis()) return 1;
+        return 0;
+    }
+
+    /**
+     * Returns the version of the round data of the given room. The version changes when the
+     * round changes, starts or ends, or gets more time, but not as the time passes, since the
+     * client counts the time itself.
+     * 
+     * @param room
+     * @param ro
+     * @return Round version.
+     */
+    
+    public static @NonNull String roundVersion(@Nullable Room room, @Nullable Round ro) {
+        if (ro == null) {
+            return room != null ? "r" + room.getId() : "r";
+        }
+        return ro.getId() + "-" + roundStatus(ro) + "-" + ro.getRoundStart().getTime();
+    }
+
+    private static @NonNull String hiddenBoard(int cells) {
+        char[] c = new char[cells];
+        Arrays.fill(c, '?');
+        return new String(c);
     }
 
     /**
@@ -150,7 +193,9 @@ public class RoundManager {
 
     /**
      * The given player requests a new round to be started. If all active players in the room
-     * are requesting it, start a new round with a random board.
+     * are requesting it, add the scores of the previous round to the total scores, and start
+     * a new round with a random board from the board pool. The valid words of the board are
+     * known already, so they are stored with the round.
      * 
      * @param roomItem
      * @param roundItem
@@ -181,6 +226,13 @@ public class RoundManager {
         }
         if (! ready) return false;
         
+        // The previous round is normally scored when it ends, but not if the server
+        // was restarted meanwhile.
+        if (roundItem != null) {
+            wm.scoreRound(roomItem, roundItem);
+            index.remove(roundItem);
+        }
+        
         Round r = new Round();
         r.setRoom(roomItem);
         
@@ -191,8 +243,11 @@ public class RoundManager {
             c.add(Calendar.SECOND, Sanaruudukko.PREROUNDTIME_FULL);
         }
             
+        SolvedBoard sb = bp.take(roomItem.getLanguage(), roomItem.getBoardSize());
+        
         r.setRoundStart(c.getTime());
-        r.setBoard(randomizeBoard());
+        r.setBoard(sb.getBoard());
+        r.setValidWords(sb.getValidWords().encode());
         em.persist(r);
         
         roomItem.setCurrentRound(r);
@@ -208,22 +263,35 @@ public class RoundManager {
     }
 
     /**
-     * Does the given round still continue,
+     * Does the given round still continue. A round that has been scored has ended.
      * 
      * @param roundItem
      * @return true if the round continues.
      */
     
     public static boolean roundContinues(@Nullable Round roundItem) {
-        if (roundItem == null) return false;
+        if (roundItem == null || roundItem.isScored()) return false;
         
-        Calendar c = Calendar.getInstance();
-        c.setTime(roundItem.getRoundStart());
-        c.add(Calendar.SECOND, Sanaruudukko.ROUNDLENGTH);
-        return c.getTime().after(new Date());
+        return roundEnd(roundItem) > System.currentTimeMillis();
+    }
 
+    /**
+     * Returns the time when the given round ends, with the more time it has got.
+     * 
+     * @param roundItem
+     * @return End time in milliseconds.
+     */
+    
+    public static long roundEnd(@NonNull Round roundItem) {
+        return roundItem.getRoundStart().getTime() + Sanaruudukko.ROUNDLENGTH * 1000L;
     }
     
+    /**
+     * The Finnish dices for all board sizes. A board of side n uses the first n * n dices, so
+     * the first 16 are the original 4x4 set. Other languages get their dices from
+     * DictionaryManager.
+     */
+    
     static char[][] dices = { 
             { 'A','I','S','B','U','J' },
             { 'A','E','E','N','E','A' },
@@ -241,28 +309,58 @@ public class RoundManager {
             { 'E','L','Y','T','T','R' },
             { 'A','K','I','T','M','V' },
             { 'A','I','L','K','V','Y' },
-            { 'A','L','R','N','N','U' } };
+            { 'A','L','R','N','N','U' },
+
+            // 5x5
+            { 'A','I','T','N','E','S' },
+            { 'A','K','U','L','T','I' },
+            { 'E','N','I','S','T','a' },
+            { 'O','K','L','M','A','I' },
+            { 'A','U','R','S','T','E' },
+            { 'I','L','N','O','V','a' },
+            { 'A','H','J','U','Y','E' },
+            { 'E','I','K','M','P','T' },
+            { 'A','D','N','R','S','o' },
+
+            // 6x6
+            { 'A','I','N','S','T','U' },
+            { 'A','E','L','L','K','I' },
+            { 'I','T','T','A','N','E' },
+            { 'O','S','K','I','N','L' },
+            { 'E','A','a','T','S','V' },
+            { 'U','I','O','R','M','S' },
+            { 'A','J','H','L','N','Y' },
+            { 'I','E','T','P','K','A' },
+            { 'N','U','L','A','o','E' },
+            { 'A','I','K','M','S','T' },
+            { 'E','A','I','U','V','R' } };
 
     /**
-     * Returns a random board using the given dices.
+     * Returns a random board of the given side using the given dices.
+     * @param dices
+     * @param side
      * @return Random board.
      */
     
-    private static @NonNull String randomizeBoard() {
-        int[] array = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+    static @NonNull String randomizeBoard(char[][] dices, int side) {
+        int cells = side * side;
+        int[] array = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            array[i] = i;
+        }
         
         Random random = new Random();
         
-        for (int i = 15; i>=0; i--) {
+        for (int i = cells - 1; i>=0; i--) {
             int moveLoc = random.nextInt(i + 1);
             int tmp = array[moveLoc];
             array[moveLoc] = array[i];
             array[i] = tmp;
         }
         
-        char[] result = new char[16];
+        char[] result = new char[cells];
         
-        for (int i = 0; i < 16; i++) {
+        for (int i = 0; i < cells; i++) {
             result[i] = dices[array[i]][random.nextInt(6)];
         }
         System.out.println(new String(result));
@@ -1,7 +1,11 @@
 package fi.iki.photon.sanaruudukko;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 import javax.annotation.Resource;
 import javax.ejb.EJB;
@@ -19,11 +23,14 @@ import javax.transaction.SystemException;
 import javax.transaction.UserTransaction;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
@@ -42,7 +49,9 @@ import fi.iki.photon.sanaruudukko.entity.Round;
  * short and small actions.
  * 
  * WordWaiter is the interface for the Reverse AJAX polling, which returns data
- * only if new data is encountered.
+ * only if new data is encountered. It is served by WordWaiterServlet, which calls
+ * wordwaiterCheck and wordwaiterReply here. GameSocket pushes the same replies
+ * through a WebSocket.
  * 
  * SubmitChat is a POST interface so that long chat lines can be sent over POST.
  * 
@@ -61,10 +70,13 @@ import fi.iki.photon.sanaruudukko.entity.Round;
  * Chat info (list of chat lines)
  * 
  * The chosen items are relevant to the processed function.
+ * 
+ * The replies are XML, or JSON if the Accept header of the request asks for
+ * application/json before XML. See ReplyWriter.
  */
 
 @Path("/sr")
-@Produces(MediaType.TEXT_PLAIN)
+@Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
 @Stateless
 @LocalBean
 @TransactionManagement(TransactionManagementType.BEAN)
@@ -76,6 +88,8 @@ public class Sanaruudukko {
     // MAX VALUE ~20 sec
     public static final int PREROUNDTIME_FULL = 10;
     public static final int PREROUNDTIME_SINGLE = 5;
+    // The cached room list is written again at least this often, as the active player counts change.
+    public static final int ROOMLIST_TTL = 5;
     
     @PersistenceContext
     private EntityManager em;
@@ -95,6 +109,24 @@ public class Sanaruudukko {
     @EJB
     private AsyncManager am;
     
+    @EJB
+    private DictionaryManager dm;
+    
+    @EJB
+    private SolverCache sc;
+    
+    @EJB
+    private RoomSnapshots snapshots;
+    
+    @EJB
+    private RoundIndex index;
+    
+    @EJB
+    private ReplyCache replies;
+    
+    @EJB
+    private NotificationHub hub;
+    
     @EJB
     private MessageManager mm;
     
@@ -120,6 +152,11 @@ public class Sanaruudukko {
      * 3: word is empty or too long when submitting or removing a word. 
      * 4: room id is empty when joining an existing room
      * 5: weird error.
+     * 6: board size is not 4, 5 or 6 when creating a new room.
+     * 7: language is not available when creating a new room.
+     * 
+     * The replies to getrooms, and to allwords and getwords after the round has ended, have an
+     * ETag, and if the client already has the current reply, 304 Not Modified is returned.
      * 
      * @param player
      * @param passcode
@@ -127,42 +164,72 @@ public class Sanaruudukko {
      * @param room
      * @param roomName
      * @param word
-     * @return XML string for AJAX processing
+     * @param size
+     * @param language
+     * @param accept
+     * @param acceptEncoding
+     * @param ifNoneMatch
+     * @return XML or JSON reply for AJAX processing
      */
     
     @GET
     @Path("process")
-    public String process(@QueryParam(value = "player") final String player,
+    public Response process(@QueryParam(value = "player") final String player,
             @QueryParam(value = "passcode") final String passcode,
             @QueryParam(value = "func") final String func,
             @QueryParam(value = "room") final String room,
             @QueryParam(value = "roomname") final String roomName,
-            @QueryParam(value = "word") final String word) {
+            @QueryParam(value = "word") final String word,
+            @QueryParam(value = "size") final String size,
+            @QueryParam(value = "language") final String language,
+            @HeaderParam(value = "Accept") final String accept,
+            @HeaderParam(value = "Accept-Encoding") final String acceptEncoding,
+            @HeaderParam(value = "If-None-Match") final String ifNoneMatch) {
         
         System.out.println("Started processing");
 
         // Some checks for clearly invalid data.
         
         if (func == null || "".equals(func)) {
-            return xmlReply("<data><status>100</status></data>");
+            return ReplyWriter.create(accept, acceptEncoding).status(100);
         }
 
         if (player == null || "".equals(player) || passcode == null || "".equals(passcode)) {
-            return xmlReply("<data><status>1</status></data>");
+            return ReplyWriter.create(accept, acceptEncoding).status(1);
         }
         
         if ("newroom".equals(func) && ( roomName == null || "".equals(roomName))) {
-            return xmlReply("<data><status>2</status></data>");
+            return ReplyWriter.create(accept, acceptEncoding).status(2);
         }
         
         if ("submitword".equals(func) || "removeword".equals(func)) {
-            if (word == null || "".equals(word) || word.length() > 16) {
-                return xmlReply("<data><status>3</status></data>");
+            if (word == null || "".equals(word) || word.length() > Bitboard.maxWordLength(Bitboard.MAX_SIDE)) {
+                return ReplyWriter.create(accept, acceptEncoding).status(3);
             }
         }
 
         if ("joinroom".equals(func) && ( room == null || "".equals(room))) {
-            return xmlReply("<data><status>4</status></data>");
+            return ReplyWriter.create(accept, acceptEncoding).status(4);
+        }
+        
+        int boardSize = Bitboard.DEFAULT_SIDE;
+        if ("newroom".equals(func) && size != null && ! "".equals(size)) {
+            try {
+                boardSize = Integer.parseInt(size);
+            } catch (NumberFormatException e) {
+                boardSize = 0;
+            }
+            if (! Bitboard.isValidSide(boardSize)) {
+                return ReplyWriter.create(accept, acceptEncoding).status(6);
+            }
+        }
+        
+        String roomLanguage = DictionaryManager.DEFAULT_LANGUAGE;
+        if ("newroom".equals(func) && language != null && ! "".equals(language)) {
+            roomLanguage = language.toUpperCase(Locale.ROOT);
+            if (! dm.hasLanguage(roomLanguage)) {
+                return ReplyWriter.create(accept, acceptEncoding).status(7);
+            }
         }
         
         try {
@@ -174,8 +241,6 @@ public class Sanaruudukko {
                 registerPlayer(player, passcode);
             }
 
-            String result;
-
             Player playerItem = checkPassword(player, passcode);
             if (playerItem == null) {
                 // Name and passcode don't match to an existing player
@@ -185,7 +250,7 @@ public class Sanaruudukko {
                 } catch (InterruptedException e) {
                     // Do nothing.
                 }
-                return xmlReply("<data><status>1</status></data>");
+                return ReplyWriter.create(accept, acceptEncoding).status(1);
             }
 
             playerItem.setLastSeen(new Date());
@@ -195,23 +260,35 @@ public class Sanaruudukko {
 
             Status s = new Status();
             
-            result = dispatchFunction(func, playerItem, roomItem, roundItem, roomName, room, word, s);
+            ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+            
+            Response cached = cachedReply(out, func, playerItem, roomItem, roundItem, ifNoneMatch);
+            if (cached != null) {
+                tx.commit();
+                return cached;
+            }
+            
+            out.start("data");
+            dispatchFunction(out, func, playerItem, roomItem, roundItem, roomName, room, word, boardSize, roomLanguage, s);
+            out.end("data");
+            
+            if ("joinroom".equals(func) || "leaveroom".equals(func) || "newroom".equals(func) || "registerp".equals(func)) {
+                mm.sendDirectoryNotify();
+            }
             
             if (s.roundStarted) {
                 roundItem = RoundManager.getRound(roomItem);
 
                 tx.commit();
                 if (roundItem != null && roomItem != null) {
-                    am.calculateValidWords(roundItem.getId());
-                    
                     am.newRoundWaiter(roomItem.getId(), roundItem.getId());
+                    am.roundEndWaiter(roundItem.getId(), RoundManager.roundEnd(roundItem));
                 }
             } else {
                 tx.commit();
             }
 
-            System.out.println(result);
-            return xmlReply("<data>" + result + "</data>");
+            return out.reply();
 
         } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | SecurityException | IllegalStateException e1 ) {
             try {
@@ -222,7 +299,7 @@ public class Sanaruudukko {
             }
             e1.printStackTrace();
         }
-        return xmlReply("");
+        return ReplyWriter.create(accept, acceptEncoding).reply();
     }
 
     /**
@@ -237,6 +314,8 @@ public class Sanaruudukko {
      * @param roomName
      * @param room
      * @param word
+     * @param boardSize
+     * @param language
      * @return XML containing the data.
      * @throws NotSupportedException 
      * @throws SystemException 
@@ -247,185 +326,330 @@ public class Sanaruudukko {
      * @throws SecurityException 
      */
     
-    private @NonNull String dispatchFunction(@NonNull String func, @NonNull Player playerItem, @Nullable Room roomItem, @Nullable Round roundItem, 
-            @Nullable String roomName, @Nullable String room, @Nullable String word, @NonNull Status s) {
-        String result;
-        
+    private void dispatchFunction(@NonNull ReplyWriter out, @NonNull String func, @NonNull Player playerItem, @Nullable Room roomItem, @Nullable Round roundItem, 
+            @Nullable String roomName, @Nullable String room, @Nullable String word, int boardSize, @NonNull String language, @NonNull Status s) {
         if ("getrooms".equals(func)) {
-            result = rm.displayRooms();
+            rm.displayRooms(out);
         
         } else if ("allwords".equals(func)) {
-            result = getValidWords(roundItem); 
+            getValidWords(out, roundItem); 
         
         } else if("moretime".equals(func)) { 
             if (roomItem == null || roundItem == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = moreTime(playerItem, roomItem, roundItem);
+                moreTime(out, playerItem, roomItem, roundItem);
             }
 
         } else if("newround".equals(func)) {
             if (roomItem == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = newRound(playerItem, roomItem, roundItem, s);
+                newRound(out, playerItem, roomItem, roundItem, s);
             }
 
         } else if ("joinroom".equals(func)) {
             if (room == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = joinRoom(playerItem, room);
+                joinRoom(out, playerItem, room);
             }
 
         } else if("submitword".equals(func)) {
             if (roomItem == null || roundItem == null || word == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = submitWord(playerItem, roomItem, roundItem, word);
+                submitWord(out, playerItem, roomItem, roundItem, word);
             }
         } else if("removeword".equals(func)) {
             if (roomItem == null || roundItem == null || word == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = removeWord(playerItem, roomItem, roundItem, word);
+                removeWord(out, playerItem, roomItem, roundItem, word);
             }
 
         } else if ("leaveroom".equals(func)) {
             if (roomItem == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = leaveRoom(playerItem, roomItem);
+                leaveRoom(out, playerItem, roomItem);
             }
 
         } else if ("newroom".equals(func)) {
             if (roomName == null) {
-                result = "<status>5</status>";
+                out.element("status", 5);
             } else {
-                result = newRoom(playerItem, roomName);
+                newRoom(out, playerItem, roomName, boardSize, language);
             }
 
         } else if ("registerp".equals(func)) {
             if (roomItem == null) {
-                result = "<status>10</status>";
+                out.element("status", 10);
             } else {
-                result = initializeLoggedToRoom(playerItem, roomItem, roundItem);
+                initializeLoggedToRoom(out, playerItem, roomItem, roundItem);
             }
 
         } else if ("displayround".equals(func)) {
-            result = RoundManager.displayRound(roundItem); 
+            RoundManager.displayRound(out, roomItem, roundItem); 
 
         } else if ("getwords".equals(func)) {
-            result = wm.displayWords(playerItem, roomItem, roundItem);
+            wm.displayWords(out, playerItem, roomItem, roundItem);
+        }
+    }
+
+    /**
+     * Returns the reply to getrooms, or to allwords or getwords if the round has ended, with
+     * an ETag. If the client sent the same ETag in If-None-Match, the reply is 304 Not Modified.
+     * 
+     * The allwords and getrooms replies are the same for all the players, and they are kept in
+     * ReplyCache, compressed as well if needed. The ETag of allwords has the round and the dictionary, and the ETag of
+     * getrooms has the directory version and the time in ROOMLIST_TTL second steps. The ETag of
+     * getwords has the caller, the version of the caller's own words and the version of the
+     * player list of the room, and the reply isn't written if the client has it. If the room
+     * hasn't changed and its player list has been checked within ROOMLIST_TTL seconds, the ETag
+     * is compared without reading the players, so the player list may be that much behind, and
+     * the ETag of getwords is weak.
+     * 
+     * @param out
+     * @param func
+     * @param playerItem
+     * @param roomItem
+     * @param roundItem
+     * @param ifNoneMatch
+     * @return The reply, or null if the reply to the function can't be cached now.
+     */
+    
+    private @Nullable Response cachedReply(@NonNull ReplyWriter out, @NonNull String func, @NonNull Player playerItem, @Nullable Room roomItem, @Nullable Round roundItem, 
+            @Nullable String ifNoneMatch) {
+        boolean roundEnded = roundItem != null && ! RoundManager.roundContinues(roundItem);
+        
+        if ("getwords".equals(func)) {
+            if (roomItem == null || roundItem == null || ! roundEnded) return null;
+            
+            String prefix = "w" + snapshots.getEpoch() + "." + out.getFormat() + "." + tagPart(playerItem.getName()) + "."
+                    + Integer.toHexString(index.get(roundItem).getWordsVersion(playerItem.getName())) + ".";
+            String seenVersion = null;
+            for (String t : entityTags(ifNoneMatch)) {
+                if (t.startsWith(prefix)) {
+                    seenVersion = t.substring(prefix.length());
+                }
+            }
+            
+            long current = snapshots.getCurrentSerial(roomItem, out.getFormat(), ROOMLIST_TTL * 1000L);
+            if (current != 0 && Long.toString(current).equals(seenVersion)) {
+                return ReplyWriter.notModified(new EntityTag(prefix + seenVersion, true));
+            }
+            
+            Status s = new Status();
+            out.start("data");
+            boolean written = wm.displayWords(out, playerItem, roomItem, roundItem, seenVersion, s);
+            out.end("data");
+            
+            EntityTag tag = new EntityTag(prefix + s.playersVersion, true);
+            return written ? out.reply(tag) : ReplyWriter.notModified(tag);
+        }
+        
+        String tag;
+        if ("allwords".equals(func)) {
+            if (roundItem == null || ! roundEnded) return null;
+            WordTrie dictionary = dm.getDictionary(roundItem.getRoom().getLanguage());
+            tag = "a" + roundItem.getId() + "." + Integer.toHexString(dictionary.getChecksum()) + "." + out.getFormat();
+        } else if ("getrooms".equals(func)) {
+            long step = System.currentTimeMillis() / (ROOMLIST_TTL * 1000L);
+            tag = "g" + snapshots.getEpoch() + "." + snapshots.getDirectoryVersion() + "." + step + "." + out.getFormat();
         } else {
-            result = "";
+            return null;
+        }
+        
+        EntityTag entityTag = new EntityTag(tag);
+        if (entityTags(ifNoneMatch).contains(tag)) {
+            return ReplyWriter.notModified(entityTag);
+        }
+        
+        ReplyCache.Reply reply = replies.get(tag);
+        if (reply == null) {
+            ReplyWriter fragment = out.fragment();
+            fragment.start("data");
+            if ("allwords".equals(func)) {
+                getValidWords(fragment, roundItem);
+            } else {
+                rm.displayRooms(fragment);
+            }
+            fragment.end("data");
+            reply = replies.put(tag, fragment.toString());
         }
+        out.raw(reply.getData());
         
-        return result != null ? result : "";
+        byte[] compressed = null;
+        if (out.isCompressed()) {
+            compressed = reply.getCompressed();
+            if (compressed == null) {
+                compressed = out.compress();
+                reply.setCompressed(compressed);
+            }
+        }
+        return out.reply(entityTag, compressed);
+    }
+
+    /**
+     * Returns the ETags listed in an If-None-Match header, without quotes and without the
+     * suffix of compressed replies.
+     * 
+     * @param header
+     * @return ETags.
+     */
+    
+    /**
+     * Returns the given text for an ETag, without quotes, commas or spaces.
+     * 
+     * @param text
+     * @return Encoded text.
+     */
+    
+    private static @NonNull String tagPart(@NonNull String text) {
+        try {
+            String encoded = URLEncoder.encode(text, "UTF-8");
+            return encoded != null ? encoded : "";
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static @NonNull List<String> entityTags(@Nullable String header) {
+        List<String> tags = new ArrayList<>();
+        if (header == null) return tags;
+        
+        for (String t : header.split(",")) {
+            t = t.trim();
+            if (t.startsWith("W/")) {
+                t = t.substring(2);
+            }
+            if (t.length() >= 2 && t.startsWith("\"") && t.endsWith("\"")) {
+                t = t.substring(1, t.length() - 1);
+                if (t.endsWith(ReplyWriter.GZIP_SUFFIX)) {
+                    t = t.substring(0, t.length() - ReplyWriter.GZIP_SUFFIX.length());
+                }
+                tags.add(t);
+            }
+        }
+        return tags;
     }
 
     /**
      * Given player, room and round, initializes a newly logged in user for the given room.
      * 
+     * @param out
      * @param playerItem
      * @param roomItem
      * @param roundItem
-     * @return
      */
     
-    private @NonNull String initializeLoggedToRoom(@NonNull Player playerItem, @NonNull Room roomItem, @Nullable Round roundItem) {
+    private void initializeLoggedToRoom(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull Room roomItem, @Nullable Round roundItem) {
         rm.enterRoom(playerItem, roomItem);
         rm.notifyForNewWords(playerItem, roomItem);
-        return RoomManager.displayRoom(roomItem) + 
-               RoundManager.displayRound(roundItem) + 
-               wm.displayWords(playerItem, roomItem, roundItem);
+        RoomManager.displayRoom(out, roomItem);
+        RoundManager.displayRound(out, roomItem, roundItem);
+        wm.displayWords(out, playerItem, roomItem, roundItem);
     }
     
     /**
      * Leaves the room where the player is and notifies the users.
      * 
+     * @param out
      * @param playerItem
      * @param roomItem
-     * @return
      */
     
-    private @NonNull String leaveRoom(@NonNull Player playerItem, @NonNull Room roomItem) {
-        RoomManager.leaveRoom(playerItem);
+    private void leaveRoom(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull Room roomItem) {
+        rm.leaveRoom(playerItem);
         rm.notifyForNewWords(playerItem, roomItem);
-        return "<status>10</status>";
+        out.element("status", 10);
     }
     
-    private @NonNull String removeWord(@NonNull Player playerItem, @NonNull Room roomItem, @NonNull Round roundItem, @NonNull String word) {
+    private void removeWord(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull Room roomItem, @NonNull Round roundItem, @NonNull String word) {
         wm.removeWord(word, roundItem, playerItem);
         rm.notifyForNewWords(playerItem, roomItem); 
-        return wm.displayWords(playerItem, roomItem, roundItem);
+        wm.displayWords(out, playerItem, roomItem, roundItem);
     }
     
-    private @NonNull String submitWord(@NonNull Player playerItem, @NonNull Room roomItem, @NonNull Round roundItem, @NonNull String word) {
+    private void submitWord(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull Room roomItem, @NonNull Round roundItem, @NonNull String word) {
         wm.submitWord(word, roundItem, playerItem); 
         rm.notifyForNewWords(playerItem, roomItem); 
-        return wm.displayWords(playerItem, roomItem, roundItem);
+        wm.displayWords(out, playerItem, roomItem, roundItem);
     }
     
-    private @NonNull String newRoom(@NonNull Player playerItem, @NonNull String roomName) {
-        Room newRoom = rm.newRoom(roomName);
+    private void newRoom(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull String roomName, int boardSize, @NonNull String language) {
+        Room newRoom = rm.newRoom(roomName, boardSize, language);
         rm.enterRoom(playerItem, newRoom);
         Round newRound = RoundManager.getRound(newRoom); 
         rm.notifyForNewWords(playerItem, newRoom); 
-        return RoomManager.displayRoom(newRoom) +
-               RoundManager.displayRound(newRound) +
-               wm.displayWords(playerItem, newRoom, newRound);
+        RoomManager.displayRoom(out, newRoom);
+        RoundManager.displayRound(out, newRoom, newRound);
+        wm.displayWords(out, playerItem, newRoom, newRound);
     }
     
-    private @NonNull String moreTime(@NonNull Player playerItem, @NonNull Room roomItem, @NonNull Round roundItem) {
+    private void moreTime(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull Room roomItem, @NonNull Round roundItem) {
         rom.moreTime(playerItem, roomItem, roundItem);
         rm.notifyForNewWords(playerItem, roomItem);
         // NewWords reveals the round info too, so we don't have to notify other players about that. 
-        return RoundManager.displayRound(roundItem) +
-                wm.displayWords(playerItem, roomItem, roundItem);
+        RoundManager.displayRound(out, roomItem, roundItem);
+        wm.displayWords(out, playerItem, roomItem, roundItem);
     }
     
-    private @NonNull String joinRoom(@NonNull Player playerItem, @NonNull String room) {
+    private void joinRoom(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull String room) {
         Room newRoom = rm.getRoom(room);
         if (newRoom == null) {
-            return "<status>5</status>";
+            out.element("status", 5);
+            return;
         }
         
         rm.enterRoom(playerItem, newRoom);
         Round newRound = RoundManager.getRound(newRoom);
         rm.notifyForNewWords(playerItem, newRoom); 
-        return   RoomManager.displayRoom(newRoom) + 
-                 RoundManager.displayRound(newRound) + 
-                 wm.displayWords(playerItem, newRoom, newRound);
+        RoomManager.displayRoom(out, newRoom);
+        RoundManager.displayRound(out, newRoom, newRound);
+        wm.displayWords(out, playerItem, newRoom, newRound);
     }
 
-    private @NonNull String newRound(@NonNull Player playerItem, @NonNull Room roomItem, @Nullable Round roundItem, Status s) {
+    private void newRound(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull Room roomItem, @Nullable Round roundItem, Status s) {
         s.roundStarted = rom.newRound(roomItem, roundItem, playerItem); 
         Round newRound = RoundManager.getRound(roomItem);
         rm.notifyForNewWords(playerItem, roomItem); 
     
-        return RoundManager.displayRound(newRound) +
-               wm.displayWords(playerItem, roomItem, newRound);
+        RoundManager.displayRound(out, roomItem, newRound);
+        wm.displayWords(out, playerItem, roomItem, newRound);
     }
     
     /**
-     * A reverse-AJAX query that will wait until new data is available, or when about 15 seconds have
-     * passed, whichever comes first.
+     * The first half of wordwaiter, a reverse-AJAX query that waits until new data is available,
+     * or until about 15 seconds have passed, whichever comes first. WordWaiterServlet serves the
+     * query, and waits between the halves without holding a thread.
      * 
-     * Returns at least the new data (possibly also some other redundant data).
+     * If the client sends the version it got in its previous reply, only the round data, player
+     * list and chat lines that have changed since that version are returned, together with the new
+     * version. If something has already changed when the query arrives, for example a notification
+     * came while the client wasn't waiting, the reply is returned here and sent without waiting.
+     * Without a version, the round data and the whole player list are returned after the wait.
+     * 
+     * The notification count of the player is read after the passcode has been checked and
+     * before the changes are, so the servlet can wait for a notification sent after the check.
      * 
      * @param player
      * @param passcode
-     * @return New data as an XML
+     * @param version
+     * @param accept
+     * @param acceptEncoding
+     * @param s notified is set to the notification count of the player
+     * @return The reply to send now, or null if the query should wait and then call wordwaiterReply.
      */
     
-    @GET
-    @Path("wordwaiter")
-    public String wordwaiter(@QueryParam(value = "player") final String player,
-            @QueryParam(value = "passcode") final String passcode) {
+    public @Nullable ReplyWriter wordwaiterCheck(@Nullable String player, @Nullable String passcode,
+            @Nullable String version, @Nullable String accept, @Nullable String acceptEncoding, @NonNull Status s) {
 
         if (player == null || "".equals(player) || passcode == null || "".equals(passcode)) {
-            return xmlReply("<data><status>1</status></data>");
+            ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+            out.status(1);
+            return out;
         }
 
         try {
@@ -440,47 +664,167 @@ public class Sanaruudukko {
                 } catch (InterruptedException e) {
                     // Do nothing.
                 }
-                return xmlReply("<data><status>1</status></data>");
+                ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+                out.status(1);
+                return out;
             }
 
-            playerItem.setLastSeen(new Date());
+            s.notified = hub.getCount(playerItem.getName());
+            ReplyWriter out = changes(playerItem, version, accept, acceptEncoding, s);
+            tx.commit();
+            return out;
+        } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | SecurityException | IllegalStateException e1 ) {
+            try {
+                tx.rollback();
+            } catch (IllegalStateException | SecurityException
+                    | SystemException e) {
+                e.printStackTrace();
+            }
+            e1.printStackTrace();
+        }
+        
+        return ReplyWriter.create(accept, acceptEncoding);
+    }
+
+    /**
+     * Marks the player seen and returns the changes since the given version, if there are any.
+     * The room of the player is recorded in NotificationHub.
+     * 
+     * @param playerItem
+     * @param version
+     * @param accept
+     * @param acceptEncoding
+     * @param changes set as by compileChanges
+     * @return The changes, or null if nothing has changed or there is no version.
+     */
+    
+    private @Nullable ReplyWriter changes(@NonNull Player playerItem, @Nullable String version,
+            @Nullable String accept, @Nullable String acceptEncoding, @NonNull Status changes) {
+        playerItem.setLastSeen(new Date());
+        
+        // Before the data is read, so that the player gets the notifications to the room
+        // about changes that aren't in this reply.
+        Room roomItem = playerItem.getRoom();
+        hub.enter(playerItem.getName(), roomItem != null ? roomItem.getId() : -1);
+        
+        if (version != null) {
+            ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+            compileChanges(out, playerItem, version, changes);
+            if (changes.newWords || changes.newChat) {
+                return out;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the passcode of a player who opens a GameSocket.
+     * 
+     * @param player
+     * @param passcode
+     * @return true if the player exists and the passcode matches.
+     */
     
+    public boolean login(@Nullable String player, @Nullable String passcode) {
+        if (player == null || "".equals(player) || passcode == null || "".equals(passcode)) {
+            return false;
+        }
+        try {
+            tx.begin();
+            Player playerItem = checkPassword(player, passcode);
             tx.commit();
+            return playerItem != null;
+        } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | SecurityException | IllegalStateException e1 ) {
+            try {
+                tx.rollback();
+            } catch (IllegalStateException | SecurityException
+                    | SystemException e) {
+                e.printStackTrace();
+            }
+            e1.printStackTrace();
+        }
+        return false;
+    }
 
-            // Do the actual waiting.
-            
-            Status status = mm.trueWordWaiter(playerItem.getName());
+    /**
+     * The first half of wordwaiter for a GameSocket or an event stream, whose player has
+     * already logged in.
+     * 
+     * @param player
+     * @param version
+     * @param accept
+     * @param s set as by compileChanges, and version is left null if the player doesn't exist
+     * @return The changes to push now, or null if nothing has changed since the version.
+     */
+    
+    public @Nullable ReplyWriter wordwaiterChanges(@NonNull String player, @NonNull String version, @Nullable String accept,
+            @NonNull Status s) {
+        try {
+            tx.begin();
+            Player playerItem = em.find(Player.class, player);
+            ReplyWriter out;
+            if (playerItem == null) {
+                out = ReplyWriter.create(accept, null);
+                out.status(5);
+            } else {
+                out = changes(playerItem, version, accept, null, s);
+            }
+            tx.commit();
+            return out;
+        } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | SecurityException | IllegalStateException e1 ) {
+            try {
+                tx.rollback();
+            } catch (IllegalStateException | SecurityException
+                    | SystemException e) {
+                e.printStackTrace();
+            }
+            e1.printStackTrace();
+        }
+        return ReplyWriter.create(accept, null);
+    }
+
+    /**
+     * The second half of wordwaiter, called when the player has been notified or the wait has
+     * timed out. Returns the changes since the given version, or the round data, the player list
+     * and the chat lines if there is no version.
+     * 
+     * @param player
+     * @param version
+     * @param accept
+     * @param acceptEncoding
+     * @return The reply.
+     */
     
+    public @NonNull ReplyWriter wordwaiterReply(@NonNull String player, @Nullable String version,
+            @Nullable String accept, @Nullable String acceptEncoding) {
+        try {
             tx.begin();
-            playerItem = em.find(Player.class, player);
+            Player playerItem = em.find(Player.class, player);
             
             if (playerItem == null) {
                 tx.commit();
-                return xmlReply("<data><status>5</status></data>");
+                ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+                out.status(5);
+                return out;
             }
             
-            Room roomItem = rm.getRoom(playerItem);
-            Round roundItem = RoundManager.getRound(roomItem);
-
-            // Based on the results of waiting, compile the result.
-            
-            String roundInfo = RoundManager.displayRound(roundItem);
-            String wordInfo = "";
-            String chatInfo = "";
-            if (status != null) {
-                if (status.newWords) {
-                    wordInfo = wm.displayWords(playerItem, roomItem, roundItem);
-                }
-                if (status.newChat) {
-                    chatInfo = displayChat(playerItem, roomItem);
-                }
+            ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+            if (version != null) {
+                compileChanges(out, playerItem, version, new Status());
+            } else {
+                Room roomItem = rm.getRoom(playerItem);
+                Round roundItem = RoundManager.getRound(roomItem);
+    
+                out.start("data");
+                RoundManager.displayRound(out, roomItem, roundItem);
+                wm.displayWords(out, playerItem, roomItem, roundItem);
+                displayChat(out, playerItem, roomItem);
+                out.end("data");
             }
     
             tx.commit();
 
-            String result = "<data>" + roundInfo + wordInfo + chatInfo + "</data>";
-            System.out.println(result);
-            return xmlReply(result);
+            return out;
         } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | SecurityException | IllegalStateException e1 ) {
             try {
                 tx.rollback();
@@ -491,7 +835,57 @@ public class Sanaruudukko {
             e1.printStackTrace();
         }
         
-        return xmlReply("");
+        return ReplyWriter.create(accept, acceptEncoding);
+    }
+
+    /**
+     * Compiles a wordwaiter reply with the parts that have changed since the given version.
+     * 
+     * The version is "epoch.round.players.chat": the start time of the server, the round version
+     * from RoundManager.roundVersion, the player list version from WordManager.displayWords and
+     * the chat version of the room. A version from an earlier server start or in another form
+     * is treated as if the client had nothing.
+     * 
+     * @param out
+     * @param playerItem
+     * @param version
+     * @param s newWords is set if the round or player data is included, newRound if the round data is,
+     *          newChat if chat lines are, and version is set to the new version
+     */
+    
+    private void compileChanges(@NonNull ReplyWriter out, @NonNull Player playerItem, @NonNull String version, @NonNull Status s) {
+        String epoch = Long.toString(snapshots.getEpoch());
+        String[] seen = version.split("\\.", -1);
+        if (seen.length != 4 || ! epoch.equals(seen[0])) {
+            seen = new String[] { "", "", "", "" };
+        }
+        
+        Room roomItem = rm.getRoom(playerItem);
+        Round roundItem = RoundManager.getRound(roomItem);
+        
+        out.start("data");
+        
+        String roundVersion = RoundManager.roundVersion(roomItem, roundItem);
+        if (! roundVersion.equals(seen[1])) {
+            RoundManager.displayRound(out, roomItem, roundItem);
+            s.newWords = true;
+            s.newRound = true;
+        }
+        
+        if (wm.displayWords(out, playerItem, roomItem, roundItem, seen[2], s)) {
+            s.newWords = true;
+        }
+        
+        String chatVersion = roomItem != null ? Integer.toString(snapshots.getChatVersion(roomItem)) : "0";
+        if (roomItem != null && ! chatVersion.equals(seen[3])) {
+            if (displayChat(out, playerItem, roomItem)) {
+                s.newChat = true;
+            }
+        }
+        
+        s.version = epoch + "." + roundVersion + "." + s.playersVersion + "." + chatVersion;
+        out.element("version", s.version);
+        out.end("data");
     }
 
     /**
@@ -502,17 +896,21 @@ public class Sanaruudukko {
      * @param   player
      * @param passcode
      * @param chatLine
-     * @return New chat lines as an XML
+     * @param accept
+     * @param acceptEncoding
+     * @return New chat lines as an XML or JSON
      */
     
     @POST
     @Path("submitchat")
-    public String submitChat(@FormParam(value = "player") final String player,
+    public Response submitChat(@FormParam(value = "player") final String player,
             @FormParam(value = "passcode") final String passcode,
-            @FormParam(value="chat") final String chatLine) {
+            @FormParam(value="chat") final String chatLine,
+            @HeaderParam(value = "Accept") final String accept,
+            @HeaderParam(value = "Accept-Encoding") final String acceptEncoding) {
 
         if (player == null || "".equals(player) || passcode == null || "".equals(passcode)) {
-            return xmlReply("<data><status>1</status></data>");
+            return ReplyWriter.create(accept, acceptEncoding).status(1);
         }
 
         try {
@@ -527,14 +925,14 @@ public class Sanaruudukko {
                 } catch (InterruptedException e) {
                     // Do nothing.
                 }
-                return xmlReply("<data><status>1</status></data>");
+                return ReplyWriter.create(accept, acceptEncoding).status(1);
             }
     
             Room roomItem = rm.getRoom(playerItem);
             
             if (roomItem == null) {
                 tx.commit();
-                return xmlReply("<data><status>5</status></data>");
+                return ReplyWriter.create(accept, acceptEncoding).status(5);
             }
             ChatLine c = new ChatLine();
             c.setPlayer(playerItem);
@@ -545,11 +943,14 @@ public class Sanaruudukko {
 
             rm.notifyForNewChat(playerItem, roomItem);
             
-            String result = "<data>" + displayChat(playerItem, roomItem) + "</data>";
+            ReplyWriter out = ReplyWriter.create(accept, acceptEncoding);
+            out.start("data");
+            displayChat(out, playerItem, roomItem);
+            out.end("data");
             
             tx.commit();
             
-            return xmlReply(result);
+            return out.reply();
 
         } catch (NotSupportedException | RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException | SecurityException | IllegalStateException e1 ) {
             try {
@@ -561,55 +962,63 @@ public class Sanaruudukko {
             e1.printStackTrace();
         }
 
-        return xmlReply("");
+        return ReplyWriter.create(accept, acceptEncoding).reply();
     }
     
     /**
-     * Returns all the chat lines that have been submitted in the room that haven't been sent
+     * Writes all the chat lines that have been submitted in the room that haven't been sent
      * to the player yet.
      * 
+     * @param out
      * @param playerItem
      * @param roomItem
-     * @return
+     * @return true if there were new chat lines.
      */
     
-    private String displayChat(Player playerItem, Room roomItem) {
+    private boolean displayChat(ReplyWriter out, Player playerItem, Room roomItem) {
 
         List<ChatLine> chatLines = em.createQuery("Select c From ChatLine c where c.room = ?1 AND c.id >= ?2 ORDER BY c.id", ChatLine.class).setParameter(1, roomItem).setParameter(2, Integer.valueOf(playerItem.getLastChat())).getResultList();
         
-        StringBuilder sb = new StringBuilder();
+        out.startList("chatrecord");
         for (ChatLine c : chatLines) {
-            sb.append("<chatrecord>");
-            sb.append("<id>" + c.getId() + "</id>");
-            sb.append("<player>" + c.getPlayer().getName() + "</player>");
-            sb.append("<line>" + c.getChatRow() + "</line>");
-            sb.append("</chatrecord>");
+            out.start("chatrecord");
+            out.element("id", c.getId());
+            out.element("player", c.getPlayer().getName());
+            out.element("line", c.getChatRow());
+            out.end("chatrecord");
         }
+        out.endList("chatrecord");
         
         if (chatLines.size() > 0) {
             playerItem.setLastChat(chatLines.get(chatLines.size()-1).getId() + 1);
         }
         
-        return sb.toString();
+        return chatLines.size() > 0;
     }
 
     /**
-     * Returns all the valid words for the given round. It is assumed that the validword table has already
-     * been initialized by AsyncManager.calculateValidWords.
+     * Returns all the valid words for the given round in dictionary order. The valid words are stored
+     * with the round when it is created in RoundManager.newRound. If the dictionary has changed since,
+     * the board is solved again.
      * 
+     * @param out
      * @param ro
-     * @return
      */
 
-    private String getValidWords(Round ro) {
-        List<String> validWords = em.createQuery("Select vw.word From ValidWord vw WHERE vw.round = ?1 ORDER BY vw.word", String.class).setParameter(1, ro).getResultList();
+    private void getValidWords(ReplyWriter out, Round ro) {
+        if (ro == null) return;
         
-        StringBuilder sb = new StringBuilder();
-        for (String s : validWords) {
-            sb.append("<word>" + s + "</word>");
+        WordTrie dictionary = dm.getDictionary(ro.getRoom().getLanguage());
+        ValidWordSet validWords = ValidWordSet.decode(ro.getValidWords());
+        if (validWords == null || ! validWords.isFrom(dictionary)) {
+            validWords = sc.solve(ro.getBoard(), dictionary);
         }
-
-        return sb.toString();
+        
+        out.startList("word");
+        for (int i = 0; i < validWords.size(); i++) {
+            out.element("word", dictionary.word(validWords.get(i)));
+        }
+        out.endList("word");
     }
 
 
@@ -659,8 +1068,4 @@ public class Sanaruudukko {
         return players.get(0);
     }
     
-    private static String xmlReply(String reply) {
-        return "<?xml version=\"1.0\" encoding=\"utf-8\" ?>" + reply;
-    }
-    
 }
@@ -0,0 +1,270 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import fi.iki.photon.sanaruudukko.entity.Player;
+import fi.iki.photon.sanaruudukko.entity.Word;
+
+/**
+ * The words of one round by player, with the players who have submitted each
+ * word and the number of enabled words of every player. The scoreboard is kept
+ * up to date as words are submitted and disabled, so duplicates, word counts and
+ * scores are found without going to the database.
+ *
+ * A word is a duplicate if more than one player has submitted it, whether or not
+ * they have disabled it. A word scores if it is enabled and not a duplicate.
+ *
+ * When the round ends, the scoreboard is finished: no more words are added, and
+ * the scores of the players are added to their total scores. The players can still
+ * enable and disable their words after that, and setDisabled then tells how much
+ * the total score of the player changes.
+ *
+ * All the methods are synchronized, since the requests of the players in a room
+ * use the same scoreboard.
+ */
+
+public final class Scoreboard {
+
+    /**
+     * A submitted word of a player. Entries are immutable, and disabling a word
+     * replaces its entry.
+     */
+
+    static final class Entry {
+        private final String word;
+        private final boolean languageCheck;
+        private final boolean disabled;
+
+        Entry(String word, boolean languageCheck, boolean disabled) {
+            this.word = word;
+            this.languageCheck = languageCheck;
+            this.disabled = disabled;
+        }
+
+        @NonNull String getWord() {
+            String w = word;
+            return w != null ? w : "";
+        }
+
+        boolean isLanguageCheck() {
+            return languageCheck;
+        }
+
+        boolean isDisabled() {
+            return disabled;
+        }
+    }
+
+    private final Map<String, Set<String>> submitters = new HashMap<>();
+    private final Map<String, TreeMap<String, Entry>> playerWords = new HashMap<>();
+    private final Map<String, Integer> enabledCounts = new HashMap<>();
+    private boolean finished;
+
+    /**
+     * @param words all the words of the round
+     * @param finished has the round been scored
+     */
+
+    Scoreboard(@NonNull List<Word> words, boolean finished) {
+        for (Word w : words) {
+            add(w.getPlayer().getName(), w.getWord(), w.isLanguageCheck(), w.isDisabled());
+        }
+        this.finished = finished;
+    }
+
+    /**
+     * Adds a word to the given player, unless the player already has it or the
+     * scoreboard is finished.
+     *
+     * @param player
+     * @param word
+     * @param languageCheck
+     * @param disabled
+     * @return true if the word was added.
+     */
+
+    synchronized boolean add(@NonNull String player, @NonNull String word, boolean languageCheck, boolean disabled) {
+        if (finished) return false;
+        TreeMap<String, Entry> words = playerWords.get(player);
+        if (words == null) {
+            words = new TreeMap<>();
+            playerWords.put(player, words);
+        }
+        if (words.containsKey(word)) return false;
+        words.put(word, new Entry(word, languageCheck, disabled));
+
+        Set<String> players = submitters.get(word);
+        if (players == null) {
+            players = new HashSet<>();
+            submitters.put(word, players);
+        }
+        players.add(player);
+
+        if (! disabled) {
+            addEnabled(player, 1);
+        }
+        return true;
+    }
+
+    /**
+     * Enables or disables a word of the given player.
+     *
+     * @param player
+     * @param word
+     * @param disabled
+     * @return The change in the total score of the player: the change in the round score
+     *         if the scoreboard is finished, otherwise 0.
+     */
+
+    synchronized int setDisabled(@NonNull String player, @NonNull String word, boolean disabled) {
+        TreeMap<String, Entry> words = playerWords.get(player);
+        Entry e = words != null ? words.get(word) : null;
+        if (e == null || e.isDisabled() == disabled) return 0;
+
+        words.put(word, new Entry(word, e.isLanguageCheck(), disabled));
+        addEnabled(player, disabled ? -1 : 1);
+
+        if (! finished || isDuplicate(word)) return 0;
+        int score = WordManager.score(word);
+        return disabled ? -score : score;
+    }
+
+    /**
+     * Finishes the scoreboard and returns the round scores of the players. Only the
+     * first call returns the scores, so they are added to the totals only once.
+     *
+     * @return Round scores that are not 0 by player name, or null if the scoreboard
+     *         was already finished.
+     */
+
+    synchronized @Nullable Map<String, Integer> finish() {
+        if (finished) return null;
+        finished = true;
+
+        Map<String, Integer> scores = new HashMap<>();
+        for (String player : playerWords.keySet()) {
+            int score = getScore(player);
+            if (score != 0) {
+                scores.put(player, Integer.valueOf(score));
+            }
+        }
+        return scores;
+    }
+
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    private void addEnabled(String player, int delta) {
+        Integer count = enabledCounts.get(player);
+        enabledCounts.put(player, Integer.valueOf((count != null ? count.intValue() : 0) + delta));
+    }
+
+    /**
+     * Has the given player submitted the given word.
+     *
+     * @param player
+     * @param word
+     * @return true if the player has the word.
+     */
+
+    synchronized boolean contains(@NonNull String player, @NonNull String word) {
+        Set<String> players = submitters.get(word);
+        return players != null && players.contains(player);
+    }
+
+    /**
+     * Returns the names of the players who have submitted words in the round.
+     *
+     * @return Player names.
+     */
+
+    synchronized @NonNull List<String> getPlayers() {
+        return new ArrayList<>(playerWords.keySet());
+    }
+
+    /**
+     * Returns the words of the given player.
+     *
+     * @param p
+     * @return Words in alphabetical order.
+     */
+
+    synchronized @NonNull List<Entry> getWords(@NonNull Player p) {
+        TreeMap<String, Entry> words = playerWords.get(p.getName());
+        if (words == null) return new ArrayList<>();
+        return new ArrayList<>(words.values());
+    }
+
+    /**
+     * Returns a version of the words of the given player, which changes when the player
+     * gets a word or a word is disabled or enabled. It is computed from the words, so a
+     * scoreboard read again from the database has the same version.
+     *
+     * @param player
+     * @return Version.
+     */
+
+    synchronized int getWordsVersion(@NonNull String player) {
+        TreeMap<String, Entry> words = playerWords.get(player);
+        if (words == null) return 0;
+        int version = 0;
+        for (Entry e : words.values()) {
+            version = 31 * version + e.getWord().hashCode() * 2 + (e.isDisabled() ? 1 : 0);
+        }
+        return version;
+    }
+
+    /**
+     * Returns the number of words of the given player that are not disabled.
+     *
+     * @param p
+     * @return Word count.
+     */
+
+    synchronized int getWordCount(@NonNull Player p) {
+        Integer count = enabledCounts.get(p.getName());
+        return count != null ? count.intValue() : 0;
+    }
+
+    /**
+     * Has more than one player submitted the given word.
+     *
+     * @param word
+     * @return true if the word is a duplicate.
+     */
+
+    synchronized boolean isDuplicate(String word) {
+        Set<String> players = submitters.get(word);
+        return players != null && players.size() > 1;
+    }
+
+    /**
+     * Returns the score of the given player in the round.
+     *
+     * @param player
+     * @return Sum of the scores of the enabled words that are not duplicates.
+     */
+
+    synchronized int getScore(@NonNull String player) {
+        TreeMap<String, Entry> words = playerWords.get(player);
+        if (words == null) return 0;
+
+        int score = 0;
+        for (Entry e : words.values()) {
+            if (! e.isDisabled() && ! isDuplicate(e.getWord())) {
+                score += WordManager.score(e.getWord());
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,26 @@
+package fi.iki.photon.sanaruudukko;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * A board together with all the dictionary words that exist on it.
+ */
+
+public final class SolvedBoard {
+
+    private final String board;
+    private final ValidWordSet validWords;
+
+    public SolvedBoard(@NonNull String board, @NonNull ValidWordSet validWords) {
+        this.board = board;
+        this.validWords = validWords;
+    }
+
+    public @NonNull String getBoard() {
+        return board;
+    }
+
+    public @NonNull ValidWordSet getValidWords() {
+        return validWords;
+    }
+}
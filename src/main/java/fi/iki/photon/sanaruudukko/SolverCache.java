@@ -0,0 +1,214 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * A bounded cache of solved boards.
+ *
+ * Rotating or mirroring a board doesn't change the words on it, so the boards are
+ * stored under a canonical form: the smallest of the eight rotations and reflections
+ * of the board string, together with the checksum of the dictionary, so the same
+ * board can be cached for several languages. The cache is least recently used first, and is bounded by
+ * the estimated memory used by the entries rather than their number, since a board
+ * can have from a few to hundreds of words.
+ *
+ * The hits and misses are counted, and can be read through JMX as
+ * fi.iki.photon.sanaruudukko:type=SolverCache. The maximum size in bytes is set
+ * with the system property sanaruudukko.solvercache.bytes.
+ */
+
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SolverCache implements SolverCacheMXBean {
+
+    public static final String CACHE_BYTES_PROPERTY = "sanaruudukko.solvercache.bytes";
+
+    private static final long DEFAULT_CACHE_BYTES = 8 * 1024 * 1024;
+
+    /** Estimated memory used by an entry besides the word indices. */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /** Cell permutations of the eight symmetries of the board, by the side of the board. */
+    private static final int[][][] SYMMETRIES = new int[Bitboard.MAX_SIDE + 1][][];
+
+    static {
+        for (int side = Bitboard.MIN_SIDE; side <= Bitboard.MAX_SIDE; side++) {
+            int n = side - 1;
+            int[][] sym = new int[8][side * side];
+            for (int cell = 0; cell < side * side; cell++) {
+                int x = cell % side, y = cell / side;
+                int[][] xy = { { x, y }, { n - y, x }, { n - x, n - y }, { y, n - x },
+                        { n - x, y }, { y, x }, { x, n - y }, { n - y, n - x } };
+                for (int s = 0; s < 8; s++) {
+                    sym[s][cell] = xy[s][1] * side + xy[s][0];
+                }
+            }
+            SYMMETRIES[side] = sym;
+        }
+    }
+
+    private final long maxWeight = Long.getLong(CACHE_BYTES_PROPERTY, DEFAULT_CACHE_BYTES).longValue();
+
+    private final LinkedHashMap<String, ValidWordSet> cache = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ObjectName mbeanName;
+
+    @PostConstruct
+    public void register() {
+        try {
+            mbeanName = new ObjectName("fi.iki.photon.sanaruudukko:type=SolverCache");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName);
+        } catch (JMException e) {
+            e.printStackTrace();
+            mbeanName = null;
+        }
+    }
+
+    @PreDestroy
+    public void unregister() {
+        if (mbeanName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the valid words of the given board, solving the board only if neither
+     * it nor any of its rotations or reflections has been solved with the same
+     * dictionary before.
+     *
+     * @param board
+     * @param dictionary
+     * @return Set of valid words.
+     */
+
+    public @NonNull ValidWordSet solve(@NonNull String board, @NonNull WordTrie dictionary) {
+        String key = Integer.toHexString(dictionary.getChecksum()) + canonical(board);
+
+        ValidWordSet vs;
+        synchronized (cache) {
+            vs = cache.get(key);
+        }
+        if (vs != null && vs.isFrom(dictionary)) {
+            hits.incrementAndGet();
+            return vs;
+        }
+
+        misses.incrementAndGet();
+        vs = BoardSolver.solve(board, dictionary);
+
+        synchronized (cache) {
+            ValidWordSet old = cache.put(key, vs);
+            if (old != null) {
+                weight -= weight(key, old);
+            }
+            weight += weight(key, vs);
+
+            Iterator<Map.Entry<String, ValidWordSet>> i = cache.entrySet().iterator();
+            while (weight > maxWeight && i.hasNext()) {
+                Map.Entry<String, ValidWordSet> e = i.next();
+                weight -= weight(e.getKey(), e.getValue());
+                i.remove();
+            }
+        }
+        return vs;
+    }
+
+    /**
+     * Returns the smallest of the board strings of the rotations and reflections
+     * of the given board.
+     *
+     * @param board
+     * @return Canonical board.
+     */
+
+    static @NonNull String canonical(@NonNull String board) {
+        int side = Bitboard.sideOf(board.length());
+        if (side == 0) {
+            throw new IllegalArgumentException("Invalid board " + board);
+        }
+
+        char[] best = null;
+        char[] c = new char[board.length()];
+        for (int[] s : SYMMETRIES[side]) {
+            for (int cell = 0; cell < c.length; cell++) {
+                c[cell] = board.charAt(s[cell]);
+            }
+            if (best == null || compare(c, best) < 0) {
+                best = c.clone();
+            }
+        }
+        return new String(best);
+    }
+
+    private static int compare(char[] a, char[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return a[i] - b[i];
+        }
+        return 0;
+    }
+
+    private static long weight(String key, ValidWordSet vs) {
+        return ENTRY_OVERHEAD + key.length() * 2 + vs.size() * 4L;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public int getEntries() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public long getWeight() {
+        synchronized (cache) {
+            return weight;
+        }
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            weight = 0;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package fi.iki.photon.sanaruudukko;
+
+/**
+ * Management interface of SolverCache.
+ */
+
+public interface SolverCacheMXBean {
+
+    /** Number of boards found in the cache. */
+    long getHits();
+
+    /** Number of boards that had to be solved. */
+    long getMisses();
+
+    int getEntries();
+
+    /** Estimated memory used by the cached boards in bytes. */
+    long getWeight();
+
+    long getMaxWeight();
+
+    void clear();
+}
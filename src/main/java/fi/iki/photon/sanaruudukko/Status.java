@@ -11,4 +11,12 @@ public class Status {
     public boolean newChat;
     
     public boolean roundStarted;
+    // Set if the round data is included in the changes.
+    public boolean newRound;
+    
+    public String playersVersion;
+    // The version of the data after the changes.
+    public String version;
+    // The notification count of the player before the changes were checked.
+    public long notified;
 }
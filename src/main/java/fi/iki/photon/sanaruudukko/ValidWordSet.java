@@ -0,0 +1,153 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The set of valid words of a board, as indices into a dictionary.
+ *
+ * The set is stored with the round as a compressed bit set: the checksum of the
+ * dictionary, the number of words, and the gaps between consecutive set bits as
+ * variable length integers. A typical board takes a few hundred bytes, and
+ * reading it back walks the words in dictionary order.
+ */
+
+public final class ValidWordSet {
+
+    private final int dictionary;
+    private final int[] words;
+
+    /**
+     * @param dictionary checksum of the dictionary the indices refer to
+     * @param words word indices in ascending order
+     */
+
+    public ValidWordSet(int dictionary, @NonNull int[] words) {
+        this.dictionary = dictionary;
+        this.words = words;
+    }
+
+    /**
+     * Reads a set stored with encode.
+     *
+     * @param data
+     * @return The set, or null if there is no valid data.
+     */
+
+    public static @Nullable ValidWordSet decode(@Nullable byte[] data) {
+        if (data == null || data.length < 4) return null;
+
+        int[] pos = { 4 };
+        int dictionary = (data[0] & 0xff) | (data[1] & 0xff) << 8 | (data[2] & 0xff) << 16 | (data[3] & 0xff) << 24;
+        int count = readInt(data, pos);
+        if (count < 0) return null;
+
+        int[] words = new int[count];
+        int index = -1;
+        for (int i = 0; i < count; i++) {
+            int gap = readInt(data, pos);
+            if (gap <= 0) return null;
+            index += gap;
+            words[i] = index;
+        }
+        return new ValidWordSet(dictionary, words);
+    }
+
+    /**
+     * Returns the set in the stored form.
+     *
+     * @return Encoded set.
+     */
+
+    public @NonNull byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + words.length * 2);
+        out.write(dictionary);
+        out.write(dictionary >>> 8);
+        out.write(dictionary >>> 16);
+        out.write(dictionary >>> 24);
+        writeInt(out, words.length);
+        int previous = -1;
+        for (int w : words) {
+            writeInt(out, w - previous);
+            previous = w;
+        }
+        byte[] data = out.toByteArray();
+        return data != null ? data : new byte[0];
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readInt(byte[] data, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 32 && pos[0] < data.length; shift += 7) {
+            byte b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        return -1;
+    }
+
+    /**
+     * Do the indices of this set refer to the given dictionary.
+     *
+     * @param dict
+     * @return true if the set was made with the same word list.
+     */
+
+    public boolean isFrom(@NonNull WordTrie dict) {
+        return dict.getChecksum() == dictionary;
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Returns the i'th word index of the set.
+     *
+     * @param i
+     * @return Word index.
+     */
+
+    public int get(int i) {
+        return words[i];
+    }
+
+    /**
+     * Returns the words of the set in dictionary order.
+     *
+     * @param dict
+     * @return List of words.
+     */
+
+    public @NonNull List<String> getWords(@NonNull WordTrie dict) {
+        List<String> result = new ArrayList<>(words.length);
+        for (int w : words) {
+            result.add(dict.word(w));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ValidWordSet)) return false;
+        return ((ValidWordSet) o).dictionary == dictionary && Arrays.equals(((ValidWordSet) o).words, words);
+    }
+
+    @Override
+    public int hashCode() {
+        return dictionary * 31 + Arrays.hashCode(words);
+    }
+}
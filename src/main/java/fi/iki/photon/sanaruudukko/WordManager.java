@@ -1,21 +1,26 @@
 package fi.iki.photon.sanaruudukko;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 import fi.iki.photon.sanaruudukko.entity.Player;
+import fi.iki.photon.sanaruudukko.entity.PlayerScore;
 import fi.iki.photon.sanaruudukko.entity.Room;
 import fi.iki.photon.sanaruudukko.entity.Round;
 import fi.iki.photon.sanaruudukko.entity.Word;
-import fi.iki.photon.sanaruudukko.entity.WordList;
-import fi.iki.photon.sanaruudukko.entity.WordListPK;
 
 /**
  * WordManager class for managing submitted words.
@@ -31,162 +36,356 @@ public class WordManager {
 
     @EJB
     private RoundManager rom;
+
+    @EJB
+    private DictionaryManager dm;
+
+    @EJB
+    private RoundIndex index;
+
+    @EJB
+    private RoomSnapshots snapshots;
+
+    @Resource
+    private TransactionSynchronizationRegistry tsr;
     
     /**
      * Lists all the players and words in the given room for the given round. 
      * If the round is still continuing, only list the summary data for other players. In any case, don't
      * show disabled words for other players than the calling player.
      * 
+     * The words, duplicates and word counts of the round are read from its Scoreboard in
+     * RoundIndex. The player elements as seen by the other players are rendered once per
+     * room version into a snapshot shared by all the players in the room, and only the
+     * calling player's own element is rendered for every call.
+     * 
+     * @param out
+     * @param playerItem
+     * @param roomItem
+     * @param roundItem
+     */
+    
+    public void displayWords(@NonNull ReplyWriter out, @NonNull Player playerItem, @Nullable Room roomItem, @Nullable Round roundItem)  {
+        displayWords(out, playerItem, roomItem, roundItem, null, new Status());
+    }
+
+    /**
+     * Lists the players and words like displayWords, unless the caller has already seen the
+     * current player list. The version of the player list is the serial of the room's snapshot,
+     * since the snapshot key covers everything that every viewer sees.
+     * 
+     * @param out
      * @param playerItem
      * @param roomItem
      * @param roundItem
-     * @return XML string containing the data.
+     * @param seenVersion the version of the player list the caller has, or null
+     * @param s playersVersion is set to the current version
+     * @return true if the list was written, false if the caller has the current version.
      */
     
-    public @NonNull String displayWords(@NonNull Player playerItem, @Nullable Room roomItem, @Nullable Round roundItem)  {
-        if (roomItem == null) return "";
+    public boolean displayWords(@NonNull ReplyWriter out, @NonNull Player playerItem, @Nullable Room roomItem, @Nullable Round roundItem, @Nullable String seenVersion, @NonNull Status s)  {
+        if (roomItem == null) {
+            s.playersVersion = "0";
+            return false;
+        }
         
         final boolean roundC = RoundManager.roundContinues(roundItem);
         
         List<Player> playersInRoom = em.createQuery("SELECT p FROM Player p WHERE p.room = ?1 ORDER BY p.name", Player.class).setParameter(1, roomItem).getResultList();
-    
-        StringBuilder result = new StringBuilder();
-        result.append("<players>");
+        
+        List<Player> shownPlayers = new ArrayList<>();
         for (Player p : playersInRoom) {
-            if (p != null) {
-                if (! p.isActive(40)) continue;
-                
-                buildPlayer(result, p, roomItem, roundItem, roundC, p.equals(playerItem));
+            if (p != null && p.isActive(40)) {
+                shownPlayers.add(p);
             }
         }
-        result.append("</players>");
-        String returnValue = result.toString();
-        return returnValue != null ? returnValue : "";
+        
+        Scoreboard scoreboard = roundItem != null ? index.get(roundItem) : null;
+        RoomSnapshots.Snapshot snapshot = getSnapshot(out, roomItem, roundItem, scoreboard, roundC, shownPlayers);
+        
+        s.playersVersion = Long.toString(snapshot.getSerial());
+        if (s.playersVersion.equals(seenVersion)) return false;
+    
+        out.start("players");
+        out.startList("player");
+        for (Player p : shownPlayers) {
+            String fragment = snapshot.getFragment(p.getName());
+            if (p.equals(playerItem) || fragment == null) {
+                buildPlayer(out, p, scoreboard, snapshot.getTotalScore(p.getName()), roundC, p.equals(playerItem));
+            } else {
+                out.raw(fragment);
+            }
+        }
+        out.endList("player");
+        out.end("players");
+        return true;
     }
 
     /**
-     * Builds a player XML element, given the parameters.
+     * Renders the snapshot of the given room as XML for the current version, so that the
+     * players who come for the results of a round that has just ended find it ready.
      * 
-     * @param result
-     * @param p
      * @param roomItem
      * @param roundItem
+     */
+    
+    public void prerender(@NonNull Room roomItem, @NonNull Round roundItem) {
+        List<Player> shownPlayers = new ArrayList<>();
+        for (Player p : em.createQuery("SELECT p FROM Player p WHERE p.room = ?1 ORDER BY p.name", Player.class).setParameter(1, roomItem).getResultList()) {
+            if (p != null && p.isActive(40)) {
+                shownPlayers.add(p);
+            }
+        }
+        getSnapshot(new XmlWriter(), roomItem, roundItem, index.get(roundItem), RoundManager.roundContinues(roundItem), shownPlayers);
+    }
+
+    /**
+     * Returns the snapshot of the given room in the format of the given writer, rendering it
+     * if the room has changed.
+     * 
+     * @param out
+     * @param roomItem
+     * @param roundItem
+     * @param scoreboard
      * @param roundC
-     * @param isCurrentPlayer
+     * @param shownPlayers
+     * @return Snapshot.
      */
     
-    private void buildPlayer(@NonNull StringBuilder result, @NonNull Player p, @NonNull Room roomItem, @Nullable Round roundItem, boolean roundC, boolean isCurrentPlayer) {
-        int totalScore = 0;
-        if (roundItem != null) {
-            List<Round> previousRounds = em.createQuery("SELECT ro FROM Round ro WHERE ro.room = ?1 AND ro.id < ?2", Round.class).setParameter(1, roomItem).setParameter(2, Integer.valueOf(roundItem.getId())).getResultList();
-
-            
-            for (Round prevRo : previousRounds) {
-                System.out.println("prev " + prevRo.getId());
-                
-                List<String> singularWords = em.createQuery("SELECT w.word FROM Word w WHERE w.round = ?1 GROUP BY w.word HAVING Count(w.player) = 1", String.class).setParameter(1, prevRo).getResultList();
-
-                System.out.println(singularWords.toString());
-                
-                List<Word> playerWords = em.createQuery("SELECT w FROM Word w WHERE w.player = ?1 AND w.round = ?2", Word.class).setParameter(1, p).setParameter(2, prevRo).getResultList();
-
-                System.out.println(playerWords.toString());
-                
-                for (Word pw : playerWords) {
-                    if (! pw.isDisabled() && singularWords.contains(pw.getWord())) {
-                        totalScore += score(pw.getWord());
-                    }
-                }
+    private @NonNull RoomSnapshots.Snapshot getSnapshot(@NonNull ReplyWriter out, @NonNull Room roomItem, @Nullable Round roundItem, @Nullable Scoreboard scoreboard, boolean roundC, @NonNull List<Player> shownPlayers) {
+        int version = snapshots.getVersion(roomItem);
+        String key = snapshotKey(version, roundItem, roundC, shownPlayers);
+        RoomSnapshots.Snapshot snapshot = snapshots.get(roomItem, out.getFormat(), key);
+        if (snapshot == null) {
+            snapshot = buildSnapshot(out, version, key, roomItem, roundItem, scoreboard, roundC, shownPlayers);
+            snapshots.put(roomItem, out.getFormat(), snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the key of the snapshot of the given room: the room version and the state of the
+     * round and the shown players, which can change without a new version as time passes.
+     * 
+     * @param version
+     * @param roundItem
+     * @param roundC
+     * @param shownPlayers
+     * @return Snapshot key.
+     */
+    
+    private @NonNull String snapshotKey(int version, @Nullable Round roundItem, boolean roundC, @NonNull List<Player> shownPlayers) {
+        StringBuilder key = new StringBuilder();
+        key.append(version).append('/');
+        key.append(roundItem != null ? roundItem.getId() : -1).append('/');
+        key.append(roundC ? 't' : 'f');
+        for (Player p : shownPlayers) {
+            key.append('/').append(p.getName().length()).append(':').append(p.getName());
+            key.append(p.isActive(20) ? 't' : 'f').append(p.isReady() ? 't' : 'f').append(p.isMoreTime() ? 't' : 'f');
+        }
+        String k = key.toString();
+        return k != null ? k : "";
+    }
+
+    /**
+     * Renders the player elements of the given players as seen by the other players, in the
+     * format of the given writer.
+     * 
+     * @param out
+     * @param version
+     * @param key
+     * @param roomItem
+     * @param roundItem
+     * @param scoreboard
+     * @param roundC
+     * @param shownPlayers
+     * @return Snapshot of the room.
+     */
+    
+    private @NonNull RoomSnapshots.Snapshot buildSnapshot(@NonNull ReplyWriter out, int version, @NonNull String key, @NonNull Room roomItem, @Nullable Round roundItem, @Nullable Scoreboard scoreboard, boolean roundC, @NonNull List<Player> shownPlayers) {
+        Map<String, Integer> totalScores = getTotalScores(roomItem, roundItem, scoreboard);
+        Map<String, String> fragments = new HashMap<>();
+        for (Player p : shownPlayers) {
+            Integer totalScore = totalScores.get(p.getName());
+            ReplyWriter fragment = out.fragment();
+            buildPlayer(fragment, p, scoreboard, totalScore != null ? totalScore.intValue() : 0, roundC, false);
+            fragments.put(p.getName(), fragment.toString());
+        }
+        return new RoomSnapshots.Snapshot(version, key, fragments, totalScores);
+    }
+
+    /**
+     * Returns the total scores of the players in the given room from the rounds before the
+     * given round, by player name. If the round has been scored already, its scores are left
+     * out, since the round's own scores are shown separately.
+     * 
+     * @param roomItem
+     * @param roundItem
+     * @param scoreboard the scoreboard of the round
+     * @return Total scores.
+     */
+    
+    private @NonNull Map<String, Integer> getTotalScores(@NonNull Room roomItem, @Nullable Round roundItem, @Nullable Scoreboard scoreboard) {
+        Map<String, Integer> totalScores = new HashMap<>();
+        if (roundItem == null) return totalScores;
+        
+        boolean scored = roundItem.isScored() && scoreboard != null;
+        List<PlayerScore> scores = em.createQuery("SELECT ps FROM PlayerScore ps WHERE ps.room = ?1", PlayerScore.class).setParameter(1, roomItem).getResultList();
+        for (PlayerScore ps : scores) {
+            String name = ps.getPlayer().getName();
+            int total = ps.getTotalScore();
+            if (scored) {
+                total -= scoreboard.getScore(name);
+            }
+            totalScores.put(name, Integer.valueOf(total));
+        }
+        return totalScores;
+    }
+
+    /**
+     * Finishes the given round when it has ended: its words are frozen, and the scores of the
+     * round are added to the total scores of the players in the room. A word scores if the
+     * player hasn't disabled it and no other player has submitted it. Every round is added
+     * only once. Words the players enable or disable afterwards change the totals in
+     * removeWord.
+     * 
+     * This is called by AsyncManager when the round ends, and when the next round starts in
+     * case that didn't happen, for example because the server was restarted.
+     * 
+     * @param roomItem
+     * @param roundItem
+     * @return true if the round was scored now.
+     */
+    
+    public boolean scoreRound(@NonNull Room roomItem, @NonNull Round roundItem) {
+        if (roundItem.isScored()) return false;
+        
+        Map<String, Integer> roundScores = index.get(roundItem).finish();
+        if (roundScores == null) return false;
+        // The scoreboard is finished in memory before the scores are written, so it
+        // is read again if they are not committed.
+        dropOnRollback(roundItem);
+        roundItem.setScored(true);
+        if (roundScores.isEmpty()) return true;
+        
+        List<PlayerScore> scores = em.createQuery("SELECT ps FROM PlayerScore ps WHERE ps.room = ?1", PlayerScore.class).setParameter(1, roomItem).getResultList();
+        for (PlayerScore ps : scores) {
+            Integer score = roundScores.remove(ps.getPlayer().getName());
+            if (score != null) {
+                ps.setTotalScore(ps.getTotalScore() + score.intValue());
             }
         }
         
-        result.append("<player>");
-        result.append("<name>" + p.getName() + "</name>");
-        result.append("<active>" + (p.isActive(20)?"t":"f") + "</active>");
-        result.append("<ready>" + (p.isReady()?"t":"f") + "</ready>");
-        result.append("<moretime>" + (p.isMoreTime()?"t":"f") + "</moretime>");
-        result.append("<totalscore>" + totalScore + "</totalscore>");
+        for (Map.Entry<String, Integer> e : roundScores.entrySet()) {
+            PlayerScore ps = new PlayerScore();
+            ps.setRoom(roomItem);
+            ps.setPlayer(em.getReference(Player.class, e.getKey()));
+            ps.setTotalScore(e.getValue().intValue());
+            em.persist(ps);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the given change to the total score of the given player in the given room.
+     * 
+     * @param roomItem
+     * @param p
+     * @param change
+     */
+    
+    private void addTotalScore(@NonNull Room roomItem, @NonNull Player p, int change) {
+        int updated = em.createQuery("UPDATE PlayerScore ps SET ps.totalScore = ps.totalScore + ?1 WHERE ps.room = ?2 AND ps.player = ?3").setParameter(1, Integer.valueOf(change)).setParameter(2, roomItem).setParameter(3, p).executeUpdate();
+        if (updated == 0) {
+            PlayerScore ps = new PlayerScore();
+            ps.setRoom(roomItem);
+            ps.setPlayer(p);
+            ps.setTotalScore(change);
+            em.persist(ps);
+        }
+    }
+
+    /**
+     * Builds a player XML element, given the parameters.
+     * 
+     * @param out
+     * @param p
+     * @param scoreboard null if there is no round
+     * @param totalScore
+     * @param roundC
+     * @param isCurrentPlayer
+     */
+    
+    private static void buildPlayer(@NonNull ReplyWriter out, @NonNull Player p, @Nullable Scoreboard scoreboard, int totalScore, boolean roundC, boolean isCurrentPlayer) {
+        out.start("player");
+        out.element("name", p.getName());
+        out.flag("active", p.isActive(20));
+        out.flag("ready", p.isReady());
+        out.flag("moretime", p.isMoreTime());
+        out.element("totalscore", totalScore);
 
    
         if (roundC && ! isCurrentPlayer) {
-            buildWordCount(result, p, roundItem);
+            buildWordCount(out, p, scoreboard);
         } else {
-            buildAllWords(result, p, roundItem, roundC, isCurrentPlayer);
+            buildAllWords(out, p, scoreboard, roundC, isCurrentPlayer);
         }
-        result.append("</player>");
+        out.end("player");
     }
 
     /**
      * Builds the words element in the case of summary.
      * 
-     * @param result
+     * @param out
      * @param p
-     * @param roundItem
+     * @param scoreboard
      */
     
-    private void buildWordCount(@NonNull StringBuilder result, @NonNull Player p, @Nullable Round roundItem) {
-        if (roundItem == null) {
-            result.append("<mode>0</mode><wordcount>0</wordcount>");
-        } else {
-            Object count = em.createQuery("SELECT count(w) FROM Word w WHERE w.player = ?1 AND w.round = ?2 AND w.disabled = ?3").setParameter(1, p).setParameter(2, roundItem).setParameter(3, new Boolean(false)).getSingleResult();
-            if (count != null) {
-                result.append("<mode>0</mode><wordcount>" + count + "</wordcount>");
-            }
-        }
+    private static void buildWordCount(@NonNull ReplyWriter out, @NonNull Player p, @Nullable Scoreboard scoreboard) {
+        out.element("mode", 0);
+        out.element("wordcount", scoreboard != null ? scoreboard.getWordCount(p) : 0);
     }
 
     /**
      * Builds all the words for the given player according to parameters.
      * 
-     * @param result
+     * @param out
      * @param p
-     * @param roundItem
+     * @param scoreboard
      * @param roundC
      * @param isCurrentPlayer
      */
     
-    private void buildAllWords(@NonNull StringBuilder result, @NonNull Player p, @Nullable Round roundItem, boolean roundC, boolean isCurrentPlayer) {
-        if (roundItem == null) {
-            result.append("<mode>1</mode><thisroundscore>0</thisroundscore>");
-        } else {
-            List<String> duplicateWords = null;
-            if (! roundC) {
-                duplicateWords = em.createQuery("SELECT w.word FROM Word w WHERE w.round = ?1 GROUP BY w.word HAVING Count(w.player) > 1", String.class).setParameter(1, roundItem).getResultList();
-            }
-            
-            
-            List<Word> playerWords = em.createQuery("SELECT w FROM Word w WHERE w.player = ?1 AND w.round = ?2 ORDER BY w.word", Word.class).setParameter(1, p).setParameter(2, roundItem).getResultList();
-    
-            int thisRoundScore = 0;
-            result.append("<mode>1</mode>");
-            for (Word w : playerWords) {
+    private static void buildAllWords(@NonNull ReplyWriter out, @NonNull Player p, @Nullable Scoreboard scoreboard, boolean roundC, boolean isCurrentPlayer) {
+        out.element("mode", 1);
+        int thisRoundScore = 0;
+        out.startList("item");
+        if (scoreboard != null) {
+            for (Scoreboard.Entry w : scoreboard.getWords(p)) {
                 if (! w.isDisabled() || isCurrentPlayer) {
                     
                     int score = score(w.getWord());
-                    boolean isDuplicate = false;
-                    result.append("<item>");
-                    result.append("<disabled>" + (w.isDisabled()?"t":"f") + "</disabled>");
-                    result.append("<word>" + w.getWord() + "</word>");
-                    result.append("<languagecheck>" + (w.isLanguageCheck()?"t":"f") + "</languagecheck>");
-                    if (duplicateWords != null) {
-                        isDuplicate = duplicateWords.contains(w.getWord());
-                        result.append("<duplicate>" + (isDuplicate?"t":"f") + "</duplicate>");
-                    } else {
-                        result.append("<duplicate>f</duplicate>");
-                    }
+                    // Duplicates are shown only after the round has ended.
+                    boolean isDuplicate = ! roundC && scoreboard.isDuplicate(w.getWord());
+                    out.start("item");
+                    out.flag("disabled", w.isDisabled());
+                    out.element("word", w.getWord());
+                    out.flag("languagecheck", w.isLanguageCheck());
+                    out.flag("duplicate", isDuplicate);
                     
                     if (w.isDisabled() || isDuplicate) {
                         score = 0;
                     }
                     
-                    result.append("<score>" + score + "</score>");
-                    result.append("</item>");
+                    out.element("score", score);
+                    out.end("item");
                     
                     thisRoundScore += score;
                 }
             }
-            result.append("<thisroundscore>" + thisRoundScore + "</thisroundscore>");
         }
+        out.endList("item");
+        out.element("thisroundscore", thisRoundScore);
     }
 
     /**
@@ -196,7 +395,7 @@ public class WordManager {
      * @return score
      */
     
-    private static int score(@Nullable String word) {
+    static int score(@Nullable String word) {
         if (word == null) return 0;
         if (word.length() < 3) return 0;
         if (word.length() == 3 || word.length() == 4) return 1;
@@ -207,7 +406,8 @@ public class WordManager {
     }
 
     /**
-     * Disables or enables the given word.
+     * Disables or enables the given word. If the round has already been scored, the total
+     * score of the player changes as well.
      * 
      * @param word
      * @param ro
@@ -215,18 +415,27 @@ public class WordManager {
      */
     
     public void removeWord(@NonNull String word, @NonNull Round ro, @NonNull Player p) {
+        Scoreboard scoreboard = index.get(ro);
+        if (! scoreboard.contains(p.getName(), word)) return;
+        
         List<Word> words = em.createQuery("SELECT w FROM Word w WHERE w.round = ?1 AND w.player = ?2 AND w.word LIKE ?3", Word.class).setParameter(1, ro).setParameter(2, p).setParameter(3, word).getResultList();
         
         if (words.size() > 0) {
             Word w = words.get(0);
             w.setDisabled(! w.isDisabled());
+            dropOnRollback(ro);
+            int change = scoreboard.setDisabled(p.getName(), word, w.isDisabled());
+            if (change != 0) {
+                addTotalScore(ro.getRoom(), p, change);
+            }
         }
     }
 
     /**
      * Adds a word to the player. Checks if the word has already been submitted and if it actually
-     * exists in the grid. If the word is ok, check it against WordList to determine if it's valid,
-     * and flag it appropriately. Add it to the database.
+     * exists in the grid. If the word is ok, check it against the in-memory word list to determine
+     * if it's valid, and flag it appropriately. Add it to the round's scoreboard and the database.
+     * If the transaction is rolled back, the scoreboard is read again from the database.
      * @param word
      * @param ro
      * @param p
@@ -236,33 +445,29 @@ public class WordManager {
         System.out.println("Submitted: " + word);
         if (! RoundManager.roundContinues(ro)) return;
 
-        // Don't allow duplicate words for the same player and round.
-        List<Word> words = em.createQuery("SELECT w FROM Word w WHERE w.round = ?1 AND w.player = ?2 AND w.word LIKE ?3", Word.class).setParameter(1, ro).setParameter(2, p).setParameter(3, word).getResultList();
-        
-        System.out.println("Duplicate?");
-        
-        if (words.size() > 0) {
-            System.out.println("Duplicate!");
+        if (! checkWord(ro, word)) {
             return;
         }
+
+        boolean languageCheck = dm.isWord(ro.getRoom().getLanguage(), word);
+
+        // Don't allow duplicate words for the same player and round. Adding the word to the
+        // scoreboard first also stops two simultaneous submits of the same word. A word
+        // submitted through another server may be missing from the scoreboard here, so the
+        // unique constraint of Word rolls the duplicate back, and the scoreboard is read again.
+        System.out.println("Duplicate?");
         
-        if (! checkWord(ro, word)) {
+        Scoreboard scoreboard = index.get(ro);
+        dropOnRollback(ro);
+        if (! scoreboard.add(p.getName(), word, languageCheck, false)) {
+            System.out.println("Duplicate!");
             return;
         }
 
-        WordListPK wlpk = new WordListPK();
-        wlpk.word = word;
-        wlpk.language = "FI";
-        WordList wl = em.find(WordList.class, wlpk);
-        
         Word w = new Word();
         w.setWord(word);
         w.setDisabled(false);
-        if (wl != null) {
-            w.setLanguageCheck(true);
-        } else {
-            w.setLanguageCheck(false);
-        }
+        w.setLanguageCheck(languageCheck);
         w.setPlayer(p);
         w.setRound(ro);
         
@@ -271,73 +476,40 @@ public class WordManager {
     }
 
     /**
-     * Checks if the given word exists on the board for the given round.
+     * Drops the scoreboard of the given round if the current transaction is rolled back,
+     * so that it is read again from the database without the words changed in memory.
+     * 
      * @param ro
-     * @param word
-     * @return true if the word is on the board.
      */
     
-    public static boolean checkWord(@NonNull Round ro, @NonNull String word) {
-        int tmpx = 0, tmpy = 0;
-        int matchLength = 0;
+    private void dropOnRollback(@NonNull final Round ro) {
+        if (tsr.getTransactionStatus() != javax.transaction.Status.STATUS_ACTIVE) return;
+        final Room roomItem = ro.getRoom();
+        tsr.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Nothing to do.
+            }
 
-        char[] board = ro.getBoard().toCharArray();
-        char[] wordArray = word.toCharArray();
-        
-        int[] x = new int[16];
-        int[] y = new int[16];
-        
-        int looping = 0;
-        while (looping == 0) {
-            boolean allow = false;
-            // Only allow locations that are close to the previous matched character and are not already in x,y table.
-            if (matchLength > 0) {
-                if (Math.abs(x[matchLength - 1] - tmpx) < 2 && Math.abs(y[matchLength - 1] - tmpy) < 2) {
-                    allow = true;
-                }
-                for (int i = 0; i < matchLength; i++) {
-                    if (x[i] == tmpx && y[i] == tmpy) {
-                        allow = false;
-                    }
-                }
-            } else { allow = true; }
-            
-            if (allow && wordArray[matchLength] == board[tmpy * 4 + tmpx]) {
-                matchLength++;
-                x[matchLength-1] = tmpx;
-                y[matchLength-1] = tmpy;
-                tmpx = tmpy = 0;
-                if (matchLength == wordArray.length) {
-                    looping = 1;
-                }
-            } else {
-                if (tmpx == 3 && tmpy == 3) {
-                    if (matchLength == 0) {
-                        looping = 2;
-                    } else {
-                        tmpx = x[matchLength-1];
-                        tmpy = y[matchLength-1];
-                        matchLength--;
-                    }
-                }
-                if (tmpx == 3 && tmpy == 3) {
-                    if (matchLength == 0) {
-                        looping = 2;
-                    } else {
-                        tmpx = x[matchLength-1];
-                        tmpy = y[matchLength-1];
-                        matchLength--;
-                    }
-                }
-                
-                tmpx++;
-                if (tmpx > 3) {
-                    tmpy++;
-                    tmpx = 0;
+            @Override
+            public void afterCompletion(int status) {
+                if (status != javax.transaction.Status.STATUS_COMMITTED) {
+                    index.remove(ro);
+                    // The snapshot of the room may show the changes.
+                    if (roomItem != null) snapshots.changed(roomItem);
                 }
             }
-        }
+        });
+    }
 
-        return looping == 1;
+    /**
+     * Checks if the given word exists on the board for the given round.
+     * @param ro
+     * @param word
+     * @return true if the word is on the board.
+     */
+    
+    public static boolean checkWord(@NonNull Round ro, @NonNull String word) {
+        return Bitboard.of(ro.getBoard()).contains(word);
     }
 }
@@ -0,0 +1,388 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * An immutable prefix tree of dictionary words, stored in one flat buffer.
+ *
+ * The nodes are laid out breadth first, so the children of a node are stored
+ * next to each other and sorted by their letter. The children of node n are the
+ * nodes firstChild[n] .. firstChild[n + 1] - 1, and letters[n] is the letter on the
+ * edge leading to node n. Node 0 is the root and represents the empty prefix.
+ *
+ * Every word has a stable index, its position in the sorted word list. Node n
+ * ends the word wordIndex[n], or -1 if no word ends there, and wordNode[i] is the
+ * node where word i ends. The checksum identifies the word list, so stored word
+ * indices can be checked to belong to this dictionary.
+ *
+ * The buffer has the same layout in memory and in a dictionary file, so a compiled
+ * file can be memory mapped and used directly without reading it to the heap:
+ *
+ * int magic, int version, int node count, int word count, int checksum,
+ * int[node count + 1] firstChild, char[node count] letters (padded to 4 bytes),
+ * int[node count] wordIndex, int[word count] wordNode.
+ *
+ * All values are little endian.
+ */
+
+public final class WordTrie {
+
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    private static final int MAGIC = 0x54445253; // "SRDT"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+
+    private final ByteBuffer data;
+    private final IntBuffer firstChild;
+    private final CharBuffer letters;
+    private final IntBuffer wordIndex;
+    private final IntBuffer wordNode;
+    private final int nodeCount;
+    private final int wordCount;
+    private final int checksum;
+
+    private WordTrie(ByteBuffer data) {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.capacity() < HEADER_SIZE || this.data.getInt(0) != MAGIC || this.data.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a dictionary file");
+        }
+        nodeCount = this.data.getInt(8);
+        wordCount = this.data.getInt(12);
+        checksum = this.data.getInt(16);
+        if (data.capacity() != size(nodeCount, wordCount)) {
+            throw new IllegalArgumentException("Truncated dictionary file");
+        }
+
+        int offset = HEADER_SIZE;
+        firstChild = view(offset).asIntBuffer();
+        offset += (nodeCount + 1) * 4;
+        letters = view(offset).asCharBuffer();
+        offset += align(nodeCount * 2);
+        wordIndex = view(offset).asIntBuffer();
+        offset += nodeCount * 4;
+        wordNode = view(offset).asIntBuffer();
+    }
+
+    private ByteBuffer view(int offset) {
+        ByteBuffer b = data.duplicate();
+        b.position(offset);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    private static int size(int nodes, int words) {
+        return HEADER_SIZE + (nodes + 1) * 4 + align(nodes * 2) + nodes * 4 + words * 4;
+    }
+
+    /**
+     * Builds a trie from the given words. Null and empty words are ignored.
+     * The trie is stored outside the Java heap.
+     *
+     * Every node corresponds to a range of the sorted word array where all the words
+     * share the node's prefix, so the tree can be built level by level without
+     * intermediate node objects.
+     *
+     * @param words
+     * @return A new trie.
+     */
+
+    public static @NonNull WordTrie build(Collection<String> words) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String s : words) {
+            if (s != null && s.length() > 0) {
+                sorted.add(s);
+            }
+        }
+        String[] w = sorted.toArray(new String[sorted.size()]);
+
+        CRC32 crc = new CRC32();
+        for (String s : w) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                crc.update(c >>> 8);
+                crc.update(c);
+            }
+            crc.update(0);
+        }
+
+        int capacity = Math.max(16, w.length * 2);
+        int[] lo = new int[capacity];
+        int[] hi = new int[capacity];
+        int[] depth = new int[capacity];
+        int[] firstChild = new int[capacity + 1];
+        char[] letters = new char[capacity];
+        int[] wordIndex = new int[capacity];
+        int[] wordNode = new int[w.length];
+
+        lo[0] = 0;
+        hi[0] = w.length;
+        depth[0] = 0;
+        int count = 1;
+
+        for (int node = 0; node < count; node++) {
+            int d = depth[node];
+            int i = lo[node];
+            int end = hi[node];
+
+            // Sorted order puts the word that ends at this node first in its range.
+            if (i < end && w[i].length() == d) {
+                wordIndex[node] = i;
+                wordNode[i] = node;
+                i++;
+            } else {
+                wordIndex[node] = NONE;
+            }
+
+            firstChild[node] = count;
+            while (i < end) {
+                char c = w[i].charAt(d);
+                int j = i + 1;
+                while (j < end && w[j].charAt(d) == c) {
+                    j++;
+                }
+
+                if (count == lo.length) {
+                    capacity = lo.length * 2;
+                    lo = Arrays.copyOf(lo, capacity);
+                    hi = Arrays.copyOf(hi, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                    firstChild = Arrays.copyOf(firstChild, capacity + 1);
+                    letters = Arrays.copyOf(letters, capacity);
+                    wordIndex = Arrays.copyOf(wordIndex, capacity);
+                }
+                lo[count] = i;
+                hi[count] = j;
+                depth[count] = d + 1;
+                letters[count] = c;
+                count++;
+                i = j;
+            }
+        }
+        firstChild[count] = count;
+
+        ByteBuffer b = ByteBuffer.allocateDirect(size(count, w.length)).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(w.length).putInt((int) crc.getValue());
+        for (int i = 0; i <= count; i++) {
+            b.putInt(firstChild[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            b.putChar(letters[i]);
+        }
+        b.position(b.position() + align(count * 2) - count * 2);
+        for (int i = 0; i < count; i++) {
+            b.putInt(wordIndex[i]);
+        }
+        for (int i = 0; i < w.length; i++) {
+            b.putInt(wordNode[i]);
+        }
+        b.flip();
+        return new WordTrie(b);
+    }
+
+    /**
+     * Opens a compiled dictionary file. The file is memory mapped read-only, so it
+     * is shared with other processes and redeployments through the page cache.
+     *
+     * @param file
+     * @return The trie stored in the file.
+     * @throws IOException
+     */
+
+    public static @NonNull WordTrie map(@NonNull File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel()) {
+            return new WordTrie(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+        }
+    }
+
+    /**
+     * Writes the trie to the given file in the format read by map.
+     *
+     * The trie is written to a temporary file in the same directory, which then
+     * replaces the file atomically. The old file may be mapped by another deployment
+     * or server, and truncating a mapped file would break its trie, and a crash in
+     * the middle of the write would leave a truncated file for the next start.
+     *
+     * @param file
+     * @throws IOException
+     */
+
+    public void write(@NonNull File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName() + ".", ".tmp", dir);
+        boolean moved = false;
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp); FileChannel fc = out.getChannel()) {
+                ByteBuffer b = data.duplicate();
+                b.clear();
+                while (b.hasRemaining()) {
+                    fc.write(b);
+                }
+                fc.force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (! moved) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the child of the given node along the given letter.
+     *
+     * @param node
+     * @param c
+     * @return Child node or NONE.
+     */
+
+    public int child(int node, char c) {
+        int end = firstChild.get(node + 1);
+        for (int i = firstChild.get(node); i < end; i++) {
+            char l = letters.get(i);
+            if (l == c) return i;
+            if (l > c) break;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the node for the given prefix.
+     *
+     * @param prefix
+     * @return Node or NONE if no word starts with the prefix.
+     */
+
+    public int find(@NonNull CharSequence prefix) {
+        int node = ROOT;
+        for (int i = 0; i < prefix.length() && node != NONE; i++) {
+            node = child(node, prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * Does a word end at the given node.
+     *
+     * @param node
+     * @return true if the path to the node spells a word.
+     */
+
+    public boolean isWord(int node) {
+        return wordIndex.get(node) != NONE;
+    }
+
+    /**
+     * Returns the index of the word that ends at the given node.
+     *
+     * @param node
+     * @return Word index or NONE.
+     */
+
+    public int wordIndex(int node) {
+        return wordIndex.get(node);
+    }
+
+    /**
+     * Returns the word with the given index.
+     *
+     * @param index
+     * @return The word.
+     */
+
+    public @NonNull String word(int index) {
+        StringBuilder sb = new StringBuilder();
+        for (int node = wordNode.get(index); node != ROOT; node = parent(node)) {
+            sb.append(letters.get(node));
+        }
+        String w = sb.reverse().toString();
+        return w != null ? w : "";
+    }
+
+    /**
+     * Returns the parent of the given node. The children of the nodes are stored in
+     * the order of their parents, so the parent is the last node whose children start
+     * at or before the given node.
+     */
+
+    private int parent(int node) {
+        int lo = 0, hi = node - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstChild.get(mid) <= node) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Is the given word in the dictionary.
+     *
+     * @param word
+     * @return true if the word is in the dictionary.
+     */
+
+    public boolean contains(@NonNull CharSequence word) {
+        int node = find(word);
+        return node != NONE && isWord(node);
+    }
+
+    /**
+     * Returns the index of the given word.
+     *
+     * @param word
+     * @return Word index or NONE if the word is not in the dictionary.
+     */
+
+    public int indexOf(@NonNull CharSequence word) {
+        int node = find(word);
+        return node != NONE ? wordIndex.get(node) : NONE;
+    }
+
+    /**
+     * Does any word in the dictionary start with the given prefix.
+     *
+     * @param prefix
+     * @return true if some word starts with the prefix.
+     */
+
+    public boolean hasPrefix(@NonNull CharSequence prefix) {
+        return find(prefix) != NONE;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+}
@@ -0,0 +1,150 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ejb.EJB;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Serves the wordwaiter query without holding a thread while it waits.
+ *
+ * The query is checked with Sanaruudukko.wordwaiterCheck, and if there is nothing
+ * new yet, the request is suspended with the asynchronous support of Servlet 3.0
+ * and a waiter is registered in NotificationHub. The thread goes back to the pool.
+ * When the player is notified, or after WAIT_TIME, the reply is written by
+ * Sanaruudukko.wordwaiterReply in a container thread and the request is completed.
+ *
+ * The servlet has the URL of the former JAX-RS method, which takes precedence over
+ * the JAX-RS servlet mapped to /rest/*, so the clients are not changed. The JAX-RS
+ * runtime of Java EE 6 can't suspend requests.
+ */
+
+@WebServlet(urlPatterns = "/rest/sr/wordwaiter", asyncSupported = true)
+public class WordWaiterServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long WAIT_TIME = 15000;
+
+    @EJB
+    private Sanaruudukko sr;
+
+    @EJB
+    private NotificationHub hub;
+
+    /**
+     * A suspended wordwaiter query. It is resumed once, by a notification, by the
+     * timeout or by an error, whichever comes first.
+     */
+
+    private final class Waiter implements Runnable, AsyncListener {
+        private final AsyncContext ac;
+        private final String player;
+        private final String version;
+        private final String accept;
+        private final String acceptEncoding;
+        private final AtomicBoolean resumed = new AtomicBoolean();
+
+        Waiter(@NonNull AsyncContext ac, @NonNull String player, @Nullable String version,
+                @Nullable String accept, @Nullable String acceptEncoding) {
+            this.ac = ac;
+            this.player = player;
+            this.version = version;
+            this.accept = accept;
+            this.acceptEncoding = acceptEncoding;
+        }
+
+        /**
+         * Called by NotificationHub in the notifying thread, so the reply is written in
+         * another thread.
+         */
+
+        @Override
+        public void run() {
+            if (resumed.get()) return;
+            ac.start(new Runnable() {
+                @Override
+                public void run() {
+                    resume();
+                }
+            });
+        }
+
+        /**
+         * Writes the reply and completes the request, unless that has been done already.
+         */
+
+        void resume() {
+            if (! resumed.compareAndSet(false, true)) return;
+            String p = player;
+            if (p == null) return;
+            hub.cancel(p, this);
+            try {
+                sr.wordwaiterReply(p, version, accept, acceptEncoding).send((HttpServletResponse) ac.getResponse());
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                ac.complete();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            resume();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            if (resumed.compareAndSet(false, true)) {
+                String p = player;
+                if (p != null) hub.cancel(p, this);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            // Completed by resume.
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // Not restarted.
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String player = req.getParameter("player");
+        String version = req.getParameter("version");
+        String accept = req.getHeader("Accept");
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+
+        // The notification count is read by the check, so that a notification sent after
+        // the check ends the wait.
+        Status s = new Status();
+        ReplyWriter out = sr.wordwaiterCheck(player, req.getParameter("passcode"), version, accept, acceptEncoding, s);
+        if (out != null || player == null) {
+            if (out == null) out = ReplyWriter.create(accept, acceptEncoding);
+            out.send(resp);
+            return;
+        }
+
+        AsyncContext ac = req.startAsync();
+        ac.setTimeout(WAIT_TIME);
+        Waiter waiter = new Waiter(ac, player, version, accept, acceptEncoding);
+        ac.addListener(waiter);
+        if (! hub.register(player, s.notified, waiter)) {
+            waiter.run();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package fi.iki.photon.sanaruudukko;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import javax.ws.rs.core.MediaType;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Writes the XML replies of the game.
+ *
+ * The renderers write their elements straight into one buffer instead of
+ * concatenating strings, and all the text from the players, such as player and
+ * room names and chat lines, is escaped here. The reply is streamed to the client
+ * through a character buffer that every thread reuses. Lists are written as
+ * repeated elements, so startList and endList write nothing.
+ */
+
+public final class XmlWriter extends ReplyWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+    private static final int CHUNK = 8192;
+
+    private static final ThreadLocal<char[]> chunks = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[CHUNK];
+        }
+    };
+
+    private final StringBuilder buf;
+
+    public XmlWriter() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity initial size of the buffer in characters
+     */
+
+    public XmlWriter(int capacity) {
+        buf = new StringBuilder(capacity);
+    }
+
+    @Override
+    public @NonNull ReplyWriter fragment() {
+        return new XmlWriter();
+    }
+
+    @Override
+    public @NonNull String getFormat() {
+        return "xml";
+    }
+
+    @Override
+    public void start(@NonNull String name) {
+        buf.append('<').append(name).append('>');
+    }
+
+    @Override
+    public void end(@NonNull String name) {
+        buf.append("</").append(name).append('>');
+    }
+
+    @Override
+    public void element(@NonNull String name, @Nullable CharSequence text) {
+        start(name);
+        if (text != null) {
+            text(text);
+        }
+        end(name);
+    }
+
+    @Override
+    public void element(@NonNull String name, long value) {
+        start(name);
+        buf.append(value);
+        end(name);
+    }
+
+    /**
+     * Writes an element with a flag as t or f.
+     *
+     * @param name
+     * @param value
+     */
+
+    @Override
+    public void flag(@NonNull String name, boolean value) {
+        start(name);
+        buf.append(value ? 't' : 'f');
+        end(name);
+    }
+
+    @Override
+    public void startList(@NonNull String name) {
+        // The elements of a list are written one after another.
+    }
+
+    @Override
+    public void endList(@NonNull String name) {
+        // The elements of a list are written one after another.
+    }
+
+    /**
+     * Writes the given text, escaped. Characters that XML doesn't allow are left out.
+     *
+     * @param text
+     */
+
+    public void text(@NonNull CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<':
+                buf.append("&lt;");
+                break;
+            case '>':
+                buf.append("&gt;");
+                break;
+            case '&':
+                buf.append("&amp;");
+                break;
+            default:
+                if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                    if (c < 0xfffe) {
+                        buf.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void raw(@NonNull String fragment) {
+        buf.append(fragment);
+    }
+
+    /**
+     * Returns the number of characters written.
+     *
+     * @return Length.
+     */
+
+    @Override
+    public int length() {
+        return buf.length();
+    }
+
+    /**
+     * Writes the XML declaration and the contents to the given writer.
+     *
+     * @param w
+     * @throws IOException
+     */
+
+    public void writeTo(@NonNull Writer w) throws IOException {
+        char[] chunk = chunks.get();
+        w.write(DECLARATION);
+        for (int pos = 0; pos < buf.length(); pos += chunk.length) {
+            int n = Math.min(chunk.length, buf.length() - pos);
+            buf.getChars(pos, pos + n, chunk, 0);
+            w.write(chunk, 0, n);
+        }
+        w.flush();
+    }
+
+    /**
+     * The XML replies have always been sent as text/plain, and the client parses
+     * them as XML.
+     *
+     * @return Media type.
+     */
+
+    @Override
+    protected @NonNull String getMediaType() {
+        return MediaType.TEXT_PLAIN;
+    }
+
+    /**
+     * Writes the reply as UTF-8.
+     *
+     * @param output
+     * @throws IOException
+     */
+
+    @Override
+    protected void writeTo(@NonNull OutputStream output) throws IOException {
+        writeTo(new OutputStreamWriter(output, UTF8));
+    }
+
+    @Override
+    public String toString() {
+        return buf.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package fi.iki.photon.sanaruudukko.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * Entity implementation class for Entity: PlayerScore
+ *
+ * The total score of a player in a room over the rounds that have been scored.
+ * A round is added to the totals once, when it ends, or when the next round
+ * starts if the server was restarted meanwhile (see WordManager.scoreRound).
+ * 
+ * @author Teppo Kankaanp
+ */
+
+@Entity
+@Table(name = "PLAYERSCORES", uniqueConstraints = @UniqueConstraint(columnNames = { "ROOM_ID", "PLAYER_NAME" }))
+@Access(AccessType.FIELD)
+public class PlayerScore implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+
+    @ManyToOne
+    @JoinColumn(nullable = false)
+    private Room room;
+
+    @ManyToOne
+    @JoinColumn(nullable = false)
+    private Player player;
+
+    @Column(nullable = false)
+    private int totalScore;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    public void setRoom(Room room) {
+        this.room = room;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public void setPlayer(Player player) {
+        this.player = player;
+    }
+
+    public int getTotalScore() {
+        return totalScore;
+    }
+
+    public void setTotalScore(int totalScore) {
+        this.totalScore = totalScore;
+    }
+}
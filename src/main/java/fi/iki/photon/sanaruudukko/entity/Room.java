@@ -38,6 +38,14 @@ public class Room implements Serializable {
     @Column(nullable=false, length=16)
     private String name;
 
+    // Side of the boards in this room, 4 to 6.
+    @Column(nullable=false)
+    private int boardSize = 4;
+
+    // Language of the dictionary and dices in this room.
+    @Column(nullable=false, length=2)
+    private String language = "FI";
+
     @OneToOne
     @JoinColumn(nullable = true)
     private Round currentRound;
@@ -58,6 +66,22 @@ public class Room implements Serializable {
         this.name = name;
     }
 
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    public void setBoardSize(int boardSize) {
+        this.boardSize = boardSize;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
     public Round getCurrentRound() {
         return currentRound;
     }
@@ -24,12 +24,21 @@ public class Round implements Serializable {
     @Column(nullable = false)
     private Date roundStart;
 
-    @Column(nullable = false, length=16)
+    @Column(nullable = false, length=36)
     private String board;
 
     @ManyToOne
     private Room room;
     
+    // Valid words of the board, see ValidWordSet.
+    @Lob
+    @Column(nullable = true)
+    private byte[] validWords;
+    
+    // Have the scores of this round been added to the PlayerScore totals.
+    @Column(nullable = false)
+    private boolean scored;
+    
 	private static final long serialVersionUID = 1L;
 
 	public Round() {
@@ -67,4 +76,20 @@ public class Round implements Serializable {
     public void setRoom(Room room) {
         this.room = room;
     }
+
+    public byte[] getValidWords() {
+        return validWords == null ? null : validWords.clone();
+    }
+
+    public void setValidWords(byte[] validWords) {
+        this.validWords = (validWords == null ? null : validWords.clone());
+    }
+
+    public boolean isScored() {
+        return scored;
+    }
+
+    public void setScored(boolean scored) {
+        this.scored = scored;
+    }
 }
@@ -11,10 +11,13 @@ import org.eclipse.jdt.annotation.Nullable;
  *
  * languageCheck will be true if the word matches a word in WordList.
  * 
+ * A player has a word only once in a round. WordManager checks this in memory, and the
+ * unique constraint checks it for the words submitted through the other servers.
+ * 
  * @author Teppo Kankaanp
  */
 @Entity
-@Table(name = "WORDS")
+@Table(name = "WORDS", uniqueConstraints = @UniqueConstraint(columnNames = { "ROUND_ID", "PLAYER_NAME", "WORD" }))
 @Access(AccessType.FIELD)
 public class Word implements Serializable {
 
@@ -32,7 +35,7 @@ public class Word implements Serializable {
     @JoinColumn(nullable=false)
     private Player player;
     
-    @Column(nullable=false, length = 16)
+    @Column(nullable=false, length = 36)
     private String word;
     
     @Column(nullable=false)
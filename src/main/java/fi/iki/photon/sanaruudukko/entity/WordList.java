@@ -18,7 +18,7 @@ public class WordList implements Serializable {
 	private static final long serialVersionUID = 1L;
 
 	@Id
-    @Column(nullable=false, length=16)
+    @Column(nullable=false, length=36)
     private String word;
 	
 	@Id
@@ -6,6 +6,14 @@ var roundCont = false;
 var room = -1;
 
 var polling = false;
+// The version of the data from the last wordwaiter reply.
+var version = "";
+// The WebSocket that pushes the changes, and whether the WebSockets are given up.
+var socket = null;
+var socketFailed = false;
+// The event stream used when there are no WebSockets, and whether it is given up.
+var stream = null;
+var streamFailed = false;
 
 var roundStarting = false;
 
@@ -40,14 +48,20 @@ $(document).ready(function() {
 
 /*
  * poll: Poll function for the long-poll query wordwaiter.
+ * Uses the WebSocket instead if the browser and the server have them, or else
+ * the event stream if the browser has one.
  * 
  */
 
 function poll() {
 	if (player != "" && room != -1 && !polling) {
 		setTimeout(function() {
-			if (room != -1) {
-				var geturl = '/sanaruudukko/rest/sr/wordwaiter?player=' + player + "&passcode=" + passcode;
+			if (room != -1 && !socketFailed && window.WebSocket) {
+				listen();
+			} else if (room != -1 && !streamFailed && window.EventSource) {
+				subscribe();
+			} else if (room != -1) {
+				var geturl = '/sanaruudukko/rest/sr/wordwaiter?player=' + player + "&passcode=" + passcode + "&version=" + encodeURIComponent(version);
 				//		document.myForm.debug.value = geturl;
 				polling = true;
 				$.ajax({
@@ -57,9 +71,7 @@ function poll() {
 					url : geturl,
 					timeout: 20000,
 					success : function(data) {
-						update(data);
-						updatewords(data);
-						updatechat(data);
+						received(data);
 					},
 					complete : function(data) {
 						polling = false;
@@ -71,6 +83,94 @@ function poll() {
 	}
 }
 
+/*
+ * received: Shows the data of a wordwaiter reply, and keeps its version.
+ * 
+ */
+
+function received(data) {
+	var $version = $(data).find("version");
+	if ($version.length > 0) {
+		version = $version.text();
+	}
+	update(data);
+	updatewords(data);
+	updatechat(data);
+}
+
+/*
+ * listen: Opens the WebSocket that pushes the same data as wordwaiter.
+ * The version is sent to the server when the socket opens and after every
+ * reply, and the server replies when something has changed since that version.
+ * If the socket can't be opened, or the login fails, wordwaiter is polled instead.
+ * 
+ */
+
+function listen() {
+	if (socket != null) {
+		return;
+	}
+	var opened = false;
+	var url = (location.protocol == "https:" ? "wss://" : "ws://") + location.host + "/sanaruudukko/socket?player=" + player + "&passcode=" + passcode;
+	polling = true;
+	socket = new WebSocket(url);
+	socket.onopen = function() {
+		opened = true;
+		socket.send(version);
+	};
+	socket.onmessage = function(event) {
+		received($.parseXML(event.data));
+		if (socket != null && room != -1) {
+			socket.send(version);
+		}
+	};
+	socket.onclose = function(event) {
+		socket = null;
+		polling = false;
+		if (!opened || event.code == 1008) {
+			socketFailed = true;
+		}
+		poll();
+	};
+}
+
+/*
+ * subscribe: Opens the event stream that pushes the same data as wordwaiter.
+ * The browser reconnects by itself and sends the id of the last event, which
+ * is the version, so only the missed changes are sent again. If the stream
+ * can't be opened, wordwaiter is polled instead.
+ * 
+ */
+
+function subscribe() {
+	if (stream != null) {
+		return;
+	}
+	var opened = false;
+	polling = true;
+	stream = new EventSource("/sanaruudukko/rest/sr/events?player=" + player + "&passcode=" + passcode + "&version=" + encodeURIComponent(version));
+	stream.onopen = function() {
+		opened = true;
+	};
+	var handler = function(event) {
+		received($.parseXML(event.data));
+	};
+	stream.addEventListener("round", handler);
+	stream.addEventListener("words", handler);
+	stream.addEventListener("chat", handler);
+	stream.addEventListener("status", handler);
+	stream.onerror = function() {
+		if (stream != null && stream.readyState == 2) {
+			stream = null;
+			polling = false;
+			if (!opened) {
+				streamFailed = true;
+			}
+			poll();
+		}
+	};
+}
+
 /*
  * timerUpdate:
  * Input is the amount of milliseconds that the current round will still last.
@@ -148,7 +248,8 @@ function timerCounter() {
  * update:
  * Input is xml formatted data from the backend containing <time> and
  * <board> fields specifying remaining time in hundredths of a second and
- * board as a bare string.
+ * board as a bare string. Wordwaiter replies leave out the round when it
+ * hasn't changed, and then nothing is updated.
  * 
  */
 
@@ -156,6 +257,8 @@ function timerCounter() {
 function update(data) {
 	//	document.myForm.debug.value = data;
 		debug(":");
+		
+		if ($(data).find("round").length == 0) { return; }
 	
 		//var xmlDoc = $.parseXML(data);
 		//var $xml = $(xmlDoc);
@@ -295,7 +398,7 @@ function updatewords(data) {
 				}
 			}
 		}
-		newHtml = newHtml + $(elem).find("name").text() + "</span>";
+		newHtml = newHtml + htmlEscape($(elem).find("name").text()) + "</span>";
 		
 		var total = $(elem).find("totalscore").text();
 		if (total == "" || total == " ") { total = "0"; } else {
@@ -419,13 +522,19 @@ function updateButtons() {
 
 /*
  * populateGrid:
- * Input is a string of 16 characters, and we put them in the
- * elements #lett<i> in the table for i=1..16.
+ * Input is a string of 16, 25 or 36 characters for a 4x4, 5x5 or 6x6 board,
+ * and we put them in the elements #lett<i> in the table for i=1..n.
+ * If the size of the board has changed, the table is built again first.
  * 
  */
 
 function populateGrid(grid) {
-	for (var i = 0; i < 16; i++) {
+	var side = Math.round(Math.sqrt(grid.length));
+	if (document.getElementById("lett" + grid.length) == null || 
+			document.getElementById("lett" + (grid.length + 1)) != null) {
+		buildGrid(side);
+	}
+	for (var i = 0; i < grid.length; i++) {
 		var container = document.getElementById("lett" + (i + 1));
 		if (grid.charAt(i) == 'a')
 			container.innerHTML = "&Auml;";
@@ -441,6 +550,24 @@ function populateGrid(grid) {
 	}
 }
 
+/*
+ * buildGrid:
+ * Builds the board table with side x side cells #lett1..#lett<side*side>.
+ */
+
+function buildGrid(side) {
+	var html = "";
+	for (var y = 0; y < side; y++) {
+		html += "<tr>";
+		for (var x = 0; x < side; x++) {
+			html += "<td id='lett" + (y * side + x + 1) + "' class='cell'>?</td>";
+		}
+		html += "</tr>";
+	}
+	$("table.board").html(html);
+	$("#boardarea").css("width", (side * 35) + "px");
+}
+
 /*
  * newRound:
  * Request a new round or more time by calling back-end function, depending
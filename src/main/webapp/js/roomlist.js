@@ -25,7 +25,8 @@ function startRoom(data) {
 			initRoomList();
 	 	} else {
 			room = $(data).find("id").text();
-			document.getElementById("roomnumber").innerHTML = "Huone: " + $(data).find("roomname").text();
+			version = "";
+			document.getElementById("roomnumber").innerHTML = "Huone: " + htmlEscape($(data).find("roomname").text());
 			document.getElementById("titlescreen").style.display = "none";
 			document.getElementById("roomform").style.display = "none";
 			document.getElementById("playarea").style.display = "block";
@@ -86,6 +87,15 @@ function setPlayer() {
 
 function initRoomList() {
 	room = -1;
+	version = "";
+	if (socket != null) {
+		socket.close();
+	}
+	if (stream != null) {
+		stream.close();
+		stream = null;
+		polling = false;
+	}
 	document.getElementById("titlescreen").style.display = "none";
 	document.getElementById("roomform").style.display = "block";
 	document.getElementById("playarea").style.display = "none";
@@ -116,13 +126,25 @@ function showRoomList(data) {
 
 	$room.each(function () {
 		roomlist += "<div><a href='#' onclick='joinroom(" + $(this).find("id").text() + 
-		  ");'>Room: " + $(this).find("roomname").text() + 
+		  ");'>Room: " + htmlEscape($(this).find("roomname").text()) + 
+		  " (" + $(this).find("boardsize").text() + "x" + $(this).find("boardsize").text() + 
+		  ", " + $(this).find("language").text() + ")" +
 		  ", Players: " + $(this).find("players").text() + "</a></div>";
 	});
 	
 	if (roomlist == "") { roomlist = "Ei aktiivisia huoneita."; }
 	
 	$("#roomlist").html(roomlist);
+
+	var selected = document.roomform.language.value;
+	var languages = "";
+	$(data).find("languages").find("language").each(function () {
+		var l = $(this).text();
+		languages += "<option value='" + l + "'" + (l == selected ? " selected='selected'" : "") + ">" + l + "</option>";
+	});
+	if (languages != "") {
+		$(document.roomform.language).html(languages);
+	}
 }
 
 /*
@@ -164,7 +186,7 @@ function newroom() {
 	var roomname = tmproomname;
 	if (player != "" && passcode != "" && roomname != "") {
 
-		var geturl = "/sanaruudukko/rest/sr/process?func=newroom&player=" + player + "&passcode=" + passcode + "&roomname=" + roomname;
+		var geturl = "/sanaruudukko/rest/sr/process?func=newroom&player=" + player + "&passcode=" + passcode + "&roomname=" + roomname + "&size=" + document.roomform.boardsize.value + "&language=" + document.roomform.language.value;
 		$.ajax({
 			cache: false,
 			dataType : 'xml',
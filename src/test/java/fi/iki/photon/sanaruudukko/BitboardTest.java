@@ -0,0 +1,254 @@
+package fi.iki.photon.sanaruudukko;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fi.iki.photon.sanaruudukko.entity.Round;
+
+/**
+ * Checks Bitboard.contains against the scan-and-backtrack loop that
+ * WordManager.checkWord used before it.
+ *
+ * The reference is the original loop, with the side of the board as a parameter
+ * instead of 4, so that it also covers the 5x5 and 6x6 boards. The random boards
+ * use few letters, so that words often have several paths and need backtracking.
+ */
+
+public class BitboardTest {
+
+    /**
+     * The original WordManager.checkWord, for a board of the given side.
+     *
+     * @param side
+     * @param boardString
+     * @param word a word of 1 to side * side letters
+     * @return true if the word is on the board.
+     */
+
+    static boolean reference(int side, String boardString, String word) {
+        int last = side - 1;
+        int tmpx = 0, tmpy = 0;
+        int matchLength = 0;
+
+        char[] board = boardString.toCharArray();
+        char[] wordArray = word.toCharArray();
+
+        int[] x = new int[side * side];
+        int[] y = new int[side * side];
+
+        int looping = 0;
+        while (looping == 0) {
+            boolean allow = false;
+            // Only allow locations that are close to the previous matched character and are not already in x,y table.
+            if (matchLength > 0) {
+                if (Math.abs(x[matchLength - 1] - tmpx) < 2 && Math.abs(y[matchLength - 1] - tmpy) < 2) {
+                    allow = true;
+                }
+                for (int i = 0; i < matchLength; i++) {
+                    if (x[i] == tmpx && y[i] == tmpy) {
+                        allow = false;
+                    }
+                }
+            } else { allow = true; }
+
+            if (allow && wordArray[matchLength] == board[tmpy * side + tmpx]) {
+                matchLength++;
+                x[matchLength-1] = tmpx;
+                y[matchLength-1] = tmpy;
+                tmpx = tmpy = 0;
+                if (matchLength == wordArray.length) {
+                    looping = 1;
+                }
+            } else {
+                if (tmpx == last && tmpy == last) {
+                    if (matchLength == 0) {
+                        looping = 2;
+                    } else {
+                        tmpx = x[matchLength-1];
+                        tmpy = y[matchLength-1];
+                        matchLength--;
+                    }
+                }
+                if (tmpx == last && tmpy == last) {
+                    if (matchLength == 0) {
+                        looping = 2;
+                    } else {
+                        tmpx = x[matchLength-1];
+                        tmpy = y[matchLength-1];
+                        matchLength--;
+                    }
+                }
+
+                tmpx++;
+                if (tmpx > last) {
+                    tmpy++;
+                    tmpx = 0;
+                }
+            }
+        }
+
+        return looping == 1;
+    }
+
+    private static void check(int side, String board, String word) {
+        assertEquals(board + " " + word, reference(side, board, word), Bitboard.of(board).contains(word));
+    }
+
+    private static String randomBoard(Random r, int side, int letters) {
+        StringBuilder b = new StringBuilder(side * side);
+        for (int i = 0; i < side * side; i++) {
+            b.append((char) ('A' + r.nextInt(letters)));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Returns the letters of a random walk between adjacent cells. The walk may
+     * visit a cell again, so the word may or may not be on the board.
+     */
+
+    private static String randomWalk(Random r, int side, String board, int length) {
+        StringBuilder w = new StringBuilder(length);
+        int x = r.nextInt(side), y = r.nextInt(side);
+        for (int i = 0; i < length; i++) {
+            w.append(board.charAt(y * side + x));
+            int nx, ny;
+            do {
+                nx = x + r.nextInt(3) - 1;
+                ny = y + r.nextInt(3) - 1;
+            } while (nx < 0 || ny < 0 || nx >= side || ny >= side || (nx == x && ny == y));
+            x = nx;
+            y = ny;
+        }
+        return w.toString();
+    }
+
+    private static void checkRandom(int side, int boards, long seed) {
+        Random r = new Random(seed);
+        for (int n = 0; n < boards; n++) {
+            String board = randomBoard(r, side, 2 + r.nextInt(5));
+            for (int k = 0; k < 8; k++) {
+                int length = 1 + r.nextInt(Math.min(side * side, 12));
+                check(side, board, randomWalk(r, side, board, length));
+                check(side, board, randomBoard(r, 1, 6).substring(0, 1) + randomWalk(r, side, board, length - 1));
+            }
+        }
+    }
+
+    @Test
+    public void randomBoards4x4() {
+        checkRandom(4, 3000, 4);
+    }
+
+    @Test
+    public void randomBoards5x5() {
+        checkRandom(5, 2000, 5);
+    }
+
+    @Test
+    public void randomBoards6x6() {
+        checkRandom(6, 1000, 6);
+    }
+
+    @Test
+    public void checkWordUsesBitboard() {
+        Random r = new Random(1);
+        for (int n = 0; n < 2000; n++) {
+            Round ro = new Round();
+            ro.setBoard(randomBoard(r, 4, 3));
+            String word = randomWalk(r, 4, ro.getBoard(), 1 + r.nextInt(8));
+            assertEquals(ro.getBoard() + " " + word, reference(4, ro.getBoard(), word), WordManager.checkWord(ro, word));
+        }
+    }
+
+    @Test
+    public void repeatedLetters() {
+        for (int side = Bitboard.MIN_SIDE; side <= Bitboard.MAX_SIDE; side++) {
+            StringBuilder board = new StringBuilder();
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i < side * side; i++) {
+                board.append('A');
+            }
+            for (int length = 1; length <= side * side; length++) {
+                word.append('A');
+                check(side, board.toString(), word.toString());
+                assertTrue(Bitboard.of(board.toString()).contains(word));
+            }
+            // One letter more than there are cells would need a cell twice.
+            word.append('A');
+            assertFalse(Bitboard.of(board.toString()).contains(word));
+        }
+        // The first A has no B next to it, so the path must start from the second one.
+        check(4, "AXXXXXXXXXXXXXAB", "AB");
+        check(4, "AXXXXXXXXXXXXXAB", "BA");
+        check(4, "ABAXBXXXXXXXXXXX", "ABAB");
+        check(4, "AAAAAAAAAAAAAAAB", "AAAAAAAAAAAAAAAB");
+    }
+
+    @Test
+    public void revisitedCells() {
+        check(4, "ABCDEFGHIJKLMNOP", "ABA");
+        check(4, "ABCDEFGHIJKLMNOP", "ABCB");
+        check(4, "ABCDEFGHIJKLMNOP", "AFA");
+        assertFalse(Bitboard.of("ABCDEFGHIJKLMNOP").contains("ABFEA"));
+        // The same letter twice is fine if it is in two cells.
+        check(4, "ABAXXXXXXXXXXXXX", "ABA");
+        assertTrue(Bitboard.of("ABAXXXXXXXXXXXXX").contains("ABA"));
+    }
+
+    @Test
+    public void edgesDontWrap() {
+        for (int side = Bitboard.MIN_SIDE; side <= Bitboard.MAX_SIDE; side++) {
+            char[] board = new char[side * side];
+            for (int i = 0; i < board.length; i++) {
+                board[i] = 'X';
+            }
+            // The last cell of the first row and the first cell of the second row.
+            board[side - 1] = 'A';
+            board[side] = 'B';
+            // The first and the last cell of the board.
+            board[0] = 'C';
+            board[board.length - 1] = 'D';
+            String b = new String(board);
+            check(side, b, "AB");
+            check(side, b, "CD");
+            assertFalse(Bitboard.of(b).contains("AB"));
+            assertFalse(Bitboard.of(b).contains("CD"));
+        }
+    }
+
+    @Test
+    public void wholeBoardPaths() {
+        for (int side = Bitboard.MIN_SIDE; side <= Bitboard.MAX_SIDE; side++) {
+            char[] board = new char[side * side];
+            for (int i = 0; i < board.length; i++) {
+                board[i] = (char) ('A' + i);
+            }
+            String b = new String(board);
+            // A snake through every row, alternating direction.
+            StringBuilder snake = new StringBuilder();
+            for (int y = 0; y < side; y++) {
+                for (int i = 0; i < side; i++) {
+                    int x = y % 2 == 0 ? i : side - 1 - i;
+                    snake.append(board[y * side + x]);
+                }
+            }
+            check(side, b, snake.toString());
+            assertTrue(Bitboard.of(b).contains(snake));
+            // The rows in order jump from the end of a row to the start of the next.
+            check(side, b, b);
+            assertFalse(Bitboard.of(b).contains(b));
+        }
+    }
+
+    @Test
+    public void emptyAndLongWords() {
+        assertFalse(Bitboard.of("ABCDEFGHIJKLMNOP").contains(""));
+        assertFalse(Bitboard.of("ABCDEFGHIJKLMNOP").contains("ABCDEFGHIJKLMNOPQ"));
+    }
+}